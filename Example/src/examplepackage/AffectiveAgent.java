@@ -3,6 +3,7 @@ package examplepackage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -13,11 +14,9 @@ import negotiator.SupportedNegotiationSetting;
 import negotiator.actions.Accept;
 import negotiator.actions.Action;
 import negotiator.actions.Offer;
-import negotiator.analysis.BidPoint;
-import negotiator.analysis.BidSpace;
 import negotiator.bidding.BidDetails;
 import agents.bayesianopponentmodel.BayesianOpponentModel;
-import agents.bayesianopponentmodel.OpponentModelUtilSpace;
+import agents.bayesianopponentmodel.OpponentModel;
 
 /**
  * @author Originally written by Tim Baarslag
@@ -29,6 +28,25 @@ public class AffectiveAgent extends BilateralAgent
 {
 	private static final double TIME_USED_TO_DETERMINE_OPPONENT_STARTING_POINT = 0.01;
 	
+	/**
+	 * Genius creates the agent itself, so it is configured by system
+	 * properties with this prefix, read in init(): for instance
+	 * -Daffectiveagent.maxIndexedDomainSize=1000000 on the java command
+	 * line that starts Genius.
+	 */
+	public static final String PROPERTY_PREFIX = "affectiveagent.";
+	
+	/**
+	 * Domains up to this size get all their bids sorted by utility in init(),
+	 * which makes finding bids of a utility band almost free. Property
+	 * maxIndexedDomainSize; 0 turns the index off. The index takes about
+	 * 12 bytes per bid and can hold at most 2^31 - 1 bids.
+	 */
+	public static final long DEFAULT_MAX_INDEXED_DOMAINSIZE = 500000;
+	
+	/** My utility of the Nash point until we can find it */
+	static final double DEFAULT_NASH_UTILITY = 0.7;
+	
 	/**
 	 * Indicates the number of times we have offered the best bid by the
 	 * opponent so far (which means we are very close to the deadline and wanted
@@ -38,6 +56,7 @@ public class AffectiveAgent extends BilateralAgent
 	
 	public enum AgentLabel {A, B};
 	public enum EvaluationType {BATNA, FAIR, MAX};
+	public enum OpponentModelType {BAYESIAN, BEAM_BAYESIAN, FREQUENCY};
 	
 	private ArrayList<Integer> acceptedOffersCount = new ArrayList<Integer>();
 	
@@ -53,16 +72,37 @@ public class AffectiveAgent extends BilateralAgent
 	private Random random100;
 	
 	private double myNashUtility;
+	/** Finds the Nash point for the agent and the worker */
+	private NashUtilityEstimator nashUtilityEstimator;
 	private double initialGap;
 	
+	private DomainUtilityIndex domainUtilityIndex;
+	private UtilityBandSearch utilityBandSearch;
+	/** Domains up to this size are indexed by utility in init() */
+	private long maxIndexedDomainSize;
+	/** Learns the opponent model in the background on big domains */
+	private OpponentModelWorker opponentModelWorker;
+	/** The opponent model used on big domains, property bigDomainOpponentModel */
+	private OpponentModelType bigDomainOpponentModelType;
+	/** The opponent model used on other domains, property opponentModel */
+	private OpponentModelType opponentModelType;
+	/**
+	 * Whether the beam-pruned Bayesian model re-weights its issues on all
+	 * cores, property parallelBeliefUpdates; it learns exactly the same. Off
+	 * by default: an update takes some tens of microseconds even with 60
+	 * issues, about what handing the issues to the other cores and back costs.
+	 */
+	private boolean parallelBeliefUpdates;
+	
 	/**
 	 * init is called when a next session starts with the same opponent.
 	 */
 	public void init()
 	{
 		super.init();
-		prepareOpponentModel();
+		readSettings();
 		DOMAINSIZE = domain.getNumberOfPossibleBids();
+		prepareOpponentModel();
 		
 		if (TEST_EQUIVALENCE) {
 			random100 = new Random(100);
@@ -71,6 +111,30 @@ public class AffectiveAgent extends BilateralAgent
 		}
 		log("Domain size: " + DOMAINSIZE);
 		
+		if (bidCodec != null) {
+			if (DOMAINSIZE <= Math.min(maxIndexedDomainSize, Integer.MAX_VALUE)) {
+				if (compiledUtilitySpace != null)
+					domainUtilityIndex = DomainUtilityIndex.build(compiledUtilitySpace);
+				else
+					domainUtilityIndex = DomainUtilityIndex.build(utilitySpace, bidCodec);
+			}
+			// Too big to index, but a linear space can still be searched
+			else if (compiledUtilitySpace != null)
+				utilityBandSearch = new UtilityBandSearch(compiledUtilitySpace);
+		}
+		
+		// Until the first estimate, which on big domains comes from the
+		// worker and may take seconds, we aim for the default
+		nashUtilityEstimator = new NashUtilityEstimator(utilitySpace, compiledUtilitySpace, bidCodec,
+				bidSpaceCache, updateScheduler, DOMAINSIZE, DEFAULT_NASH_UTILITY);
+		updateMyNashUtility(DEFAULT_NASH_UTILITY);
+		
+		stopOpponentModelWorker();
+		if (isDomainBig() && !TEST_EQUIVALENCE) {
+			opponentModelWorker = new OpponentModelWorker(fOpponentModel, createOpponentModel(), bidSpaceCache,
+					nashUtilityEstimator);
+		}
+		
 		String agentID = readAgentLabel();
 		if(!agentID.equals(null)) setAgentID(new AgentID(agentID));
 	}
@@ -82,11 +146,35 @@ public class AffectiveAgent extends BilateralAgent
 
 		double time = timeline.getTime();
 		log("---------- t = " + time + "----------\n");
+		updateScheduler.turn(time);
 
 		// If we have time, we update the opponent model
-		if (canUpdateBeliefs(time)) {
+		if (opponentModelWorker != null) {
+			// In the background, so we take whatever it has learnt so far
+			opponentModelWorker.submit(opponentLastBid);
+			OpponentModelWorker.Snapshot snapshot = opponentModelWorker.swap();
+			if (snapshot != null) {
+				fOpponentModel = snapshot.getOpponentModel();
+				updateMyNashUtility(snapshot.getNashUtility());
+			}
+		} else if (canUpdateBeliefs(time)) {
+			long start = System.nanoTime();
 			updateBeliefs(opponentLastBid);
-			updateMyNashUtility();
+			updateScheduler.beliefsUpdated(System.nanoTime() - start);
+
+			if (canUpdateNash(time)) {
+				start = System.nanoTime();
+				updateMyNashUtility(nashUtilityEstimator.getNashUtility(fOpponentModel));
+				updateScheduler.nashUpdated(System.nanoTime() - start);
+			}
+		}
+
+		log(utilityCache.toString());
+		log(updateScheduler.toString());
+		if (fOpponentModel instanceof BeamBayesianOpponentModel) {
+			BeamBayesianOpponentModel beamModel = (BeamBayesianOpponentModel) fOpponentModel;
+			log("The opponent model keeps " + beamModel.getNumberOfHypotheses() + " hypotheses, with "
+					+ percentage(beamModel.getRetainedMass()) + "% of the mass of its last update");
 		}
 
 		double myUtilityOfOpponentLastBid = getUtility(opponentLastBid);
@@ -142,21 +230,34 @@ public class AffectiveAgent extends BilateralAgent
 	}
 	
 	/**
-	 * Decides if we have enough time to update opponent model and nash point.
-	 * On large domains, this may take 3 seconds.
+	 * Decides if we have enough time to update opponent model. On large
+	 * domains, this may take 3 seconds, which is why they are updated by the
+	 * {@link OpponentModelWorker} instead.
 	 * 
 	 * @param time
 	 */
 	private boolean canUpdateBeliefs(double time) {
-		// in the last seconds we don't want to lose any time
-		if (time > 0.99) return false;
+		if (TEST_EQUIVALENCE) {
+			// in the last seconds we don't want to lose any time
+			if (time > 0.99) return false;
 
-		// in a big domain, we stop updating half-way
-		if (isDomainBig())
-			if (time > 0.5)
-				return false;
+			// in a big domain, we stop updating half-way
+			if (isDomainBig())
+				if (time > 0.5)
+					return false;
 
-		return true;
+			return true;
+		}
+		return updateScheduler.canUpdateBeliefs(time);
+	}
+	
+	/**
+	 * Decides if we have enough time to update the nash point, after the
+	 * opponent model was updated.
+	 */
+	private boolean canUpdateNash(double time) {
+		if (TEST_EQUIVALENCE) return true;
+		return updateScheduler.canUpdateNash(time);
 	}
 	
 	private boolean isDomainBig() {
@@ -168,27 +269,33 @@ public class AffectiveAgent extends BilateralAgent
 			fOpponentModel.updateBeliefs(opponentLastBid);
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			bidSpaceCache.beliefsUpdated(fOpponentModel);
 		}
 	}
 	
-	private void updateMyNashUtility() {
-		
-		BidSpace bs = null;
+	/**
+	 * The worker would otherwise wait for bids forever, holding on to both
+	 * models and the bid space.
+	 */
+	@Override
+	protected void negotiationEnded() {
+		stopOpponentModelWorker();
+	}
+	
+	private void stopOpponentModelWorker() {
+		if (opponentModelWorker != null)
+			opponentModelWorker.stop();
+		opponentModelWorker = null;
+	}
+	
+	private void updateMyNashUtility(double nashUtility) {
 		
-		myNashUtility = 0.7;
+		myNashUtility = nashUtility;
 		
 		try {
 
 			double nashMultiplier = getNashMultiplier(initialGap);
-			
-			if (DOMAINSIZE < 200000) {
-				bs = new BidSpace(utilitySpace, new OpponentModelUtilSpace(fOpponentModel), true, false);
-
-				BidPoint nash = bs.getNash();
-				
-				if (nash != null && nash.getUtilityA() != null)
-					myNashUtility = nash.getUtilityA();
-			}
 
 			myNashUtility *= nashMultiplier;
 
@@ -239,7 +346,7 @@ public class AffectiveAgent extends BilateralAgent
 	 */
 	private double getBonus() {
 		
-		double discountFactor = utilitySpace.getDiscountFactor();
+		double discountFactor = utilityProfile.getDiscountFactor();
 		double discountBonus = 0.5 - 0.4 * discountFactor;
 		
 		if (discountFactor < 1)
@@ -278,6 +385,15 @@ public class AffectiveAgent extends BilateralAgent
 		// In big domains, we need to find only this amount of bids around the
 		// target. Should be at least 2.
 		final int limit = 2;
+		
+		if (domainUtilityIndex != null)
+			return domainUtilityIndex.getBidsOfUtility(lowerBound, upperBound, isDomainBig() ? limit : 0);
+		
+		if (utilityBandSearch != null)
+			return utilityBandSearch.getBidsOfUtility(lowerBound, upperBound, isDomainBig() ? limit : 0);
+
+		if (bidCodec != null)
+			return scanBidsOfUtility(lowerBound, upperBound, isDomainBig() ? limit : 0);
 
 		List<Bid> bidsInRange = new ArrayList<Bid>();
 		BidIterator myBidIterator = new BidIterator(domain);
@@ -302,6 +418,80 @@ public class AffectiveAgent extends BilateralAgent
 		return bidsInRange;
 	}
 	
+	/**
+	 * Walks the domain on all cores, finding the same bids as a walk with a
+	 * {@link BidIterator}: the first limit (if > 0) in domain order.
+	 */
+	private List<Bid> scanBidsOfUtility(final double lowerBound, final double upperBound, int limit) {
+		long[] codes = ParallelDomainScan.findFirst(bidCodec.size(), limit, new ParallelDomainScan.Filter() {
+			public boolean accept(long code) {
+				try {
+					double util = utilitySpace.getUtility(bidCodec.decode(code));
+					return util >= lowerBound && util <= upperBound;
+				} catch (Exception e) {
+					e.printStackTrace();
+					return false;
+				}
+			}
+		});
+		
+		List<Bid> bidsInRange = new ArrayList<Bid>(codes.length);
+		for (long code : codes)
+			bidsInRange.add(bidCodec.getBid(code));
+		return bidsInRange;
+	}
+	
+	/**
+	 * Whether finding the bids of a utility range takes a walk over the
+	 * whole domain.
+	 */
+	private boolean isWalkingDomain() {
+		return domainUtilityIndex == null && utilityBandSearch == null;
+	}
+	
+	/**
+	 * Walks the domain once for all the steps of
+	 * {@link #getBidsOfUtility(double)} after the one with the given range.
+	 */
+	private UtilityBands getUtilityBands(final double lowerBound, final double upperBound) {
+		// In big domains, we need to find only this amount of bids per step
+		final int limit = isDomainBig() ? 2 : 0;
+		
+		if (bidCodec != null) {
+			List<UtilityBands> partitions = ParallelDomainScan.scan(bidCodec.size(), new ParallelDomainScan.Scanner<UtilityBands>() {
+				public UtilityBands scan(int partition, long from, long to) {
+					UtilityBands bands = new UtilityBands(lowerBound, upperBound, limit);
+					for (long code = from; code < to; code++) {
+						Bid b = bidCodec.decode(code);
+						try {
+							bands.add(b, utilitySpace.getUtility(b));
+						} catch (Exception e) {
+							e.printStackTrace();
+						}
+					}
+					return bands;
+				}
+			});
+			
+			UtilityBands bands = partitions.get(0);
+			for (int p = 1; p < partitions.size(); p++)
+				bands.addAll(partitions.get(p));
+			return bands;
+		}
+		
+		UtilityBands bands = new UtilityBands(lowerBound, upperBound, limit);
+		BidIterator myBidIterator = new BidIterator(domain);
+		while (myBidIterator.hasNext()) {
+			Bid b = myBidIterator.next();
+			try {
+				bands.add(b, utilitySpace.getUtility(b));
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		return bands;
+	}
+	
 	/**
 	 * Get all bids in a utility range.
 	 */
@@ -312,9 +502,16 @@ public class AffectiveAgent extends BilateralAgent
 		double min = target * 0.98;
 		double max = target + 0.04;
 		
+		// Without an index every step would walk the whole domain again, so
+		// the steps are collected in one walk. In big domains the first step
+		// is still tried on its own, as it usually stops after a few bids.
+		UtilityBands bands = null;
+		if (isWalkingDomain() && !isDomainBig())
+			bands = getUtilityBands(min, max);
+		
 		do {
 			max += 0.01;
-			List<Bid> bids = getBidsOfUtility(min, max);
+			List<Bid> bids = (bands != null) ? bands.next() : getBidsOfUtility(min, max);
 			int size = bids.size();
 
 			log(size + " bids found in [" + round2(min) + ", " + round2(max)
@@ -327,6 +524,9 @@ public class AffectiveAgent extends BilateralAgent
 						+ "]");
 				return bids;
 			}
+			
+			if (bands == null && isWalkingDomain() && max <= 1)
+				bands = getUtilityBands(min, max);
 		} while (max <= 1);
 
 		// Weird if this happens
@@ -337,6 +537,54 @@ public class AffectiveAgent extends BilateralAgent
 	}
 	
 	private Bid getBestBidForOpponent(List<Bid> bids) {
+		// The reference agent breaks ties the way BidHistory sorts
+		if (TEST_EQUIVALENCE)
+			return getBestBidForOpponentFromHistory(bids);
+		
+		// All bids scored at once, and the best picked from the scores
+		Bid[] candidates = bids.toArray(new Bid[bids.size()]);
+		double[] utilities = new double[candidates.length];
+		bidSpaceCache.getNormalizedUtilities(fOpponentModel, candidates, utilities);
+
+		// Pick the top 3 to 20 bids, depending on the domain size
+		int n = (int) Math.round(bids.size() / 10.0);
+		if (n < 3) n = 3;
+		if (n > 20) n = 20;
+
+		int[] bestN = getBestIndices(utilities, n);
+		if (bestN.length == 0)
+			return candidates.length == 0 ? null : candidates[0];
+		int randomBestN = bestN[random100.nextInt(bestN.length)];
+		
+		log("Random bid chosen out of the top " + n + " of " + bids.size()
+				+ " bids, with opp util: "
+				+ round2(utilities[randomBestN]));
+		
+		return candidates[randomBestN];
+	}
+	
+	/**
+	 * Indices of the n highest utilities, best first; equal utilities keep
+	 * their order. NaN is skipped.
+	 */
+	private static int[] getBestIndices(double[] utilities, int n) {
+		int[] best = new int[n];
+		int size = 0;
+		for (int i = 0; i < utilities.length; i++) {
+			double utility = utilities[i];
+			if (Double.isNaN(utility) || (size == n && utility <= utilities[best[n - 1]]))
+				continue;
+			int j = (size < n) ? size++ : n - 1;
+			while (j > 0 && utility > utilities[best[j - 1]]) {
+				best[j] = best[j - 1];
+				j--;
+			}
+			best[j] = i;
+		}
+		return Arrays.copyOf(best, size);
+	}
+	
+	private Bid getBestBidForOpponentFromHistory(List<Bid> bids) {
 		// We first make a bid history for the opponent, then pick the best one.
 		BidHistory possibleBidHistory = new BidHistory();
 		
@@ -412,7 +660,7 @@ public class AffectiveAgent extends BilateralAgent
 	@Override
 	public Bid chooseOpeningBid() {
 		try {
-			return utilitySpace.getMaxUtilityBid();
+			return utilityProfile.getMaxUtilityBid();
 		} catch (Exception e) {
 			e.printStackTrace();
 			return utilitySpace.getDomain().getRandomBid(random100);
@@ -510,12 +758,7 @@ public class AffectiveAgent extends BilateralAgent
 	}
 	
 	private double utility(Bid b) {
-		try {
-			return utilitySpace.getUtility(b);
-		} catch (Exception e) {
-			e.printStackTrace();
-			return 0;
-		}
+		return getUndiscountedUtility(b);
 	}
 	
 	/**
@@ -623,7 +866,58 @@ public class AffectiveAgent extends BilateralAgent
 	}
 	
 	private void prepareOpponentModel() {
-		fOpponentModel = new BayesianOpponentModel(utilitySpace);
+		fOpponentModel = createOpponentModel();
+	}
+	
+	/**
+	 * Genius' Bayesian model learns from every bid, but on big domains an
+	 * update takes seconds; there the model of the property
+	 * bigDomainOpponentModel is used, by default the beam-pruned Bayesian
+	 * model, which learns more per bid at a bounded cost (the frequency model
+	 * updates fastest), and elsewhere that of the property opponentModel, by
+	 * default Genius' Bayesian model.
+	 */
+	private OpponentModel createOpponentModel() {
+		if (bidCodec != null && !TEST_EQUIVALENCE) {
+			switch (isDomainBig() ? bigDomainOpponentModelType : opponentModelType) {
+			case FREQUENCY:
+				return new FrequencyOpponentModel(bidCodec);
+			case BEAM_BAYESIAN:
+				BeamBayesianOpponentModel beamModel = new BeamBayesianOpponentModel(bidCodec);
+				beamModel.setParallel(parallelBeliefUpdates);
+				return beamModel;
+			default:
+				break;
+			}
+		}
+		return new BayesianOpponentModel(utilitySpace);
+	}
+	
+	/**
+	 * Reads the settings of the session from the system properties, see
+	 * PROPERTY_PREFIX; those not set, or not valid, keep their default.
+	 */
+	private void readSettings() {
+		maxIndexedDomainSize = Long.getLong(PROPERTY_PREFIX + "maxIndexedDomainSize", DEFAULT_MAX_INDEXED_DOMAINSIZE);
+		opponentModelType = getOpponentModelType("opponentModel", OpponentModelType.BAYESIAN);
+		bigDomainOpponentModelType = getOpponentModelType("bigDomainOpponentModel", OpponentModelType.BEAM_BAYESIAN);
+		parallelBeliefUpdates = Boolean.getBoolean(PROPERTY_PREFIX + "parallelBeliefUpdates");
+	}
+	
+	/**
+	 * The opponent model named by a property, such as BEAM_BAYESIAN, or
+	 * the default if it is not set or names none.
+	 */
+	private static OpponentModelType getOpponentModelType(String property, OpponentModelType defaultType) {
+		String name = System.getProperty(PROPERTY_PREFIX + property);
+		if (name == null)
+			return defaultType;
+		try {
+			return OpponentModelType.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			e.printStackTrace();
+			return defaultType;
+		}
 	}
 	
 	@Override
@@ -3,11 +3,9 @@ package examplepackage;
 import java.util.HashMap;
 import java.util.List;
 import negotiator.Bid;
-import negotiator.analysis.BidSpace;
+import negotiator.analysis.BidPoint;
 import negotiator.utility.UtilitySpace;
-import agents.anac.y2013.MetaAgent.portfolio.thenegotiatorreloaded.BidIterator;
-import agents.bayesianopponentmodel.BayesianOpponentModel;
-import agents.bayesianopponentmodel.OpponentModelUtilSpace;
+import agents.bayesianopponentmodel.OpponentModel;
 import examplepackage.AffectiveAgent;
 
 /**
@@ -25,6 +23,9 @@ public class Appraisal extends AffectiveAgent{
 	
 	private Double minUtility=null, maxUtility=null;
 	
+	/** Profile of a space other than the agent's, see getUtilityProfile */
+	private UtilityProfile otherUtilityProfile;
+	
 	private double beta1, beta0;
 	
 	private final String[] userModels = {"RPL", "RLP", "PLR", "PRL", "LPR", "LRP"};
@@ -41,7 +42,7 @@ public class Appraisal extends AffectiveAgent{
 	
 	private Intentionality intenStatus = Intentionality.INTENTIONAL;
 	
-	public boolean isDesirable(UtilitySpace utilSpace, BidHistory opponentHistory, BayesianOpponentModel opponentModel, EvaluationType evalType, double threshold) throws Exception {
+	public boolean isDesirable(UtilitySpace utilSpace, BidHistory opponentHistory, OpponentModel opponentModel, EvaluationType evalType, double threshold) throws Exception {
 		
 		Bid opponentLastBid = opponentHistory.getLastBid();
 		
@@ -49,11 +50,11 @@ public class Appraisal extends AffectiveAgent{
 			switch (evalType)
 			{
 				case BATNA:
-					if ((utilSpace.getUtility(opponentLastBid) - utilSpace.getReservationValueUndiscounted()) >= threshold) return true; else return false;
+					if ((utilityOf(utilSpace, opponentLastBid) - getUtilityProfile(utilSpace).getReservationValue()) >= threshold) return true; else return false;
 				case MAX:
-					if ((utilSpace.getUtility(utilSpace.getMaxUtilityBid()) - utilSpace.getUtility(opponentLastBid)) <= threshold) return true; else return false;
+					if ((utilityOf(utilSpace, getUtilityProfile(utilSpace).getMaxUtilityBid()) - utilityOf(utilSpace, opponentLastBid)) <= threshold) return true; else return false;
 				case FAIR:
-					if ((utilSpace.getUtility(opponentLastBid) - getFairUtilityOnPareto(utilSpace, new BidSpace(utilSpace, new OpponentModelUtilSpace(opponentModel), false, true), getFairnessType())) >= threshold) return true; else return false;
+					if ((utilityOf(utilSpace, opponentLastBid) - getFairUtilityOnPareto(utilSpace, opponentModel, getFairnessType())) >= threshold) return true; else return false;
 				default:
 					System.out.println("Appraisal--Desirability Failed!");
 					return false;
@@ -106,7 +107,7 @@ public class Appraisal extends AffectiveAgent{
 	// and the max (aspiration) utility value.
 	private boolean isControllable(UtilitySpace utilSpace, Bid opponentLastBid, double thresholdValue) throws Exception {
 		
-		if((utilSpace.getUtility(utilSpace.getMaxUtilityBid()) - thresholdValue) < utilSpace.getUtility(opponentLastBid)) return true; else return false;
+		if((utilityOf(utilSpace, getUtilityProfile(utilSpace).getMaxUtilityBid()) - thresholdValue) < utilityOf(utilSpace, opponentLastBid)) return true; else return false;
 	}
 	
 	// This method is implemented to compute controllability of an event (new offer) using a linear regression line in the given time. 
@@ -149,7 +150,7 @@ public class Appraisal extends AffectiveAgent{
 	// I simply considered opponent new bid as an event. This will be replaced by probability of an offer given the user model. 
 	public boolean isUnexpected(UtilitySpace utilSpace, BidHistory opponentHistory, double thresholdValue) throws Exception {
 		
-		if (Math.log(1 + getMaxHistoryUtility(utilSpace, opponentHistory) - utilSpace.getUtility(opponentHistory.getLastBid())) >= thresholdValue) return true; else return false;
+		if (Math.log(1 + getMaxHistoryUtility(utilSpace, opponentHistory) - utilityOf(utilSpace, opponentHistory.getLastBid())) >= thresholdValue) return true; else return false;
 	}
 	
 	// This method is implemented based on the Rainer's "Modeling Forms of Surprise..." paper.
@@ -157,10 +158,10 @@ public class Appraisal extends AffectiveAgent{
 	// I simply considered opponent new bid as an event. This will be replaced by probability of an offer given the user model. 
 	public boolean isUnexpected(double thresholdValue, List<Bid> bidHistory, UtilitySpace utilSpace) throws Exception {
 		
-		if ((1 - utilSpace.getUtility(bidHistory.get(bidHistory.size()-1))) >= thresholdValue) return true; else return false;
+		if ((1 - utilityOf(utilSpace, bidHistory.get(bidHistory.size()-1))) >= thresholdValue) return true; else return false;
 	}
 
-	public boolean isTemporalStatusFuture(UtilitySpace utilSpace, BidHistory opponentHistory, BayesianOpponentModel opponentModel, long time, double rSquaredThresholdValue, double acceptableDistanceToAspirationValue) throws Exception {
+	public boolean isTemporalStatusFuture(UtilitySpace utilSpace, BidHistory opponentHistory, OpponentModel opponentModel, long time, double rSquaredThresholdValue, double acceptableDistanceToAspirationValue) throws Exception {
 
 		computeLinearRegression(utilSpace, opponentHistory);
 
@@ -202,17 +203,36 @@ public class Appraisal extends AffectiveAgent{
 		return true;
 	}
 	
-	private double getFairUtilityOnPareto(UtilitySpace utilSpace, BidSpace bidSpace, FairnessType fairType) throws Exception {
+	/**
+	 * My utility of the fair point against the current opponent model, as
+	 * far as the agent has already found it; else the agent's guess. Every
+	 * offer is appraised on the negotiation thread, so nothing is built
+	 * here: the agent finds the Nash point when the scheduler gives it time.
+	 */
+	private double getFairUtilityOnPareto(UtilitySpace utilSpace, OpponentModel opponentModel, FairnessType fairType) throws Exception {
+		
+		if (bidSpaceCache == null || bidSpaceCache.getUtilitySpace() != utilSpace)
+			return DEFAULT_NASH_UTILITY;
 		
 		switch(fairType)
 		{
 			case NASH:
-				return utilSpace.getUtility(bidSpace.getNash().getBid());
+				return getUtilityA(bidSpaceCache.getBuiltNash(opponentModel));
 			case KALAI:
-				return utilSpace.getUtility(bidSpace.getKalaiSmorodinsky().getBid());
+				return getUtilityA(bidSpaceCache.getBuiltKalaiSmorodinsky(opponentModel));
 		}
-		
-		return -1.0;
+		return DEFAULT_NASH_UTILITY;
+	}
+	
+	/**
+	 * My utility of a fair point, or the agent's guess if there is none:
+	 * a frontier has no fair point when every bid is below the
+	 * reservation value.
+	 */
+	private static double getUtilityA(BidPoint fairPoint) {
+		if (fairPoint == null || fairPoint.getUtilityA() == null)
+			return DEFAULT_NASH_UTILITY;
+		return fairPoint.getUtilityA();
 	}
 	
 	private long getTime(Time time) {
@@ -464,7 +484,7 @@ public class Appraisal extends AffectiveAgent{
         double sumx = 0.0, sumy = 0.0, sumx2 = 0.0;
         
         while(opponentHistory.size() >= n) {
-            opponentBidUtility = utilSpace.getUtility(opponentHistory.getHistory().get(n-1).getBid());
+            opponentBidUtility = utilityOf(utilSpace, opponentHistory.getHistory().get(n-1).getBid());
         	sumx  += opponentBidUtility;
             sumx2 += opponentBidUtility * opponentBidUtility;
             sumy  += n;
@@ -477,7 +497,7 @@ public class Appraisal extends AffectiveAgent{
         double xxbar = 0.0, yybar = 0.0, xybar = 0.0;
         
         for (int i = 1 ; i < n ; i++) {
-        	opponentBidUtility = utilSpace.getUtility(opponentHistory.getHistory().get(i-1).getBid());
+        	opponentBidUtility = utilityOf(utilSpace, opponentHistory.getHistory().get(i-1).getBid());
             xxbar += (opponentBidUtility - xbar) * (opponentBidUtility - xbar);
             yybar += (i - ybar) * (i - ybar);
             xybar += (opponentBidUtility - xbar) * (i - ybar);
@@ -491,7 +511,7 @@ public class Appraisal extends AffectiveAgent{
         double ssr = 0.0;
         
         for (int i = 0 ; i < n-1 ; i++) {
-            double fit = beta1 * utilSpace.getUtility(opponentHistory.getHistory().get(i).getBid()) + beta0;
+            double fit = beta1 * utilityOf(utilSpace, opponentHistory.getHistory().get(i).getBid()) + beta0;
             ssr += (fit - ybar) * (fit - ybar);
         }
         
@@ -505,14 +525,18 @@ public class Appraisal extends AffectiveAgent{
 	}
 	
 	private double estimateUtilityDistanceToAspirationValueAtTime(UtilitySpace utilSpace, long time) throws Exception {
-		return Math.abs(utilSpace.getUtility(utilSpace.getMaxUtilityBid()) - getNormalizedUtility(utilSpace, beta1 + (time * beta0)));
+		return Math.abs(utilityOf(utilSpace, getUtilityProfile(utilSpace).getMaxUtilityBid()) - getNormalizedUtility(utilSpace, beta1 + (time * beta0)));
 	}
 	
 	private double getNormalizedUtility(UtilitySpace utilSpace, double utilityValue) throws Exception
 	{
 		double value = 0.0;
 		
-		if (minUtility == null || maxUtility == null) findMinMaxUtility(utilSpace);
+		if (minUtility == null || maxUtility == null) {
+			UtilityProfile profile = getUtilityProfile(utilSpace);
+			minUtility = Math.min(1.0, profile.getMinUtility());
+			maxUtility = Math.max(0.0, profile.getMaxUtility());
+		}
 		
 		if ((maxUtility-minUtility) != 0)
 			value = (double)(utilityValue - minUtility)/(maxUtility - minUtility);
@@ -522,21 +546,25 @@ public class Appraisal extends AffectiveAgent{
 		return (double)(utilityValue - minUtility)/(maxUtility - minUtility);
 	}
 	
-	private void findMinMaxUtility(UtilitySpace utilSpace) throws Exception
-	{
-		double utility;
-		
-		BidIterator biditer = new BidIterator(utilSpace.getDomain());
-		
-		minUtility = 1.0;  maxUtility = 0.0;
-
-		while (biditer.hasNext())
-		{
-			utility = utilSpace.getUtility(biditer.next());
-			
-			if (minUtility > utility) minUtility = utility; //Equality?!!!
-			if (maxUtility < utility) maxUtility = utility;
-		}
+	/**
+	 * The profile of a space: the agent's own, or one made for another space
+	 * on first use.
+	 */
+	private UtilityProfile getUtilityProfile(UtilitySpace utilSpace) {
+		if (utilityProfile != null && utilityProfile.getUtilitySpace() == utilSpace)
+			return utilityProfile;
+		if (otherUtilityProfile == null || otherUtilityProfile.getUtilitySpace() != utilSpace)
+			otherUtilityProfile = UtilityProfile.build(utilSpace);
+		return otherUtilityProfile;
+	}
+	
+	/**
+	 * Utility of a bid, from the agent's cache when it is of the same space.
+	 */
+	private double utilityOf(UtilitySpace utilSpace, Bid bid) throws Exception {
+		if (utilityCache != null && utilityCache.getUtilitySpace() == utilSpace)
+			return utilityCache.getUtility(bid);
+		return utilSpace.getUtility(bid);
 	}
 	
 	private double getMaxHistoryUtility(UtilitySpace utilSpace, BidHistory opponentHistory) throws Exception {
@@ -544,15 +572,15 @@ public class Appraisal extends AffectiveAgent{
 		double maxUtility = 0.0;
 		
 		for (int i = 0 ; i < opponentHistory.size() ; i++)
-			if (maxUtility < utilSpace.getUtility(opponentHistory.getHistory().get(i).getBid()))
-				maxUtility = utilSpace.getUtility(opponentHistory.getHistory().get(i).getBid());
+			if (maxUtility < utilityOf(utilSpace, opponentHistory.getHistory().get(i).getBid()))
+				maxUtility = utilityOf(utilSpace, opponentHistory.getHistory().get(i).getBid());
 		
 		return maxUtility;
 	}
 	
 	private double getAlphaValue(UtilitySpace utilSpace, Bid opponentBid) throws Exception {
 		
-		double distance = utilSpace.getUtility(utilSpace.getMaxUtilityBid()) - utilSpace.getUtility(opponentBid);
+		double distance = utilityOf(utilSpace, getUtilityProfile(utilSpace).getMaxUtilityBid()) - utilityOf(utilSpace, opponentBid);
 		
 		if (distance != 0.0)
 			return ((double)1.0/Math.abs(distance) * 0.1);
@@ -560,12 +588,12 @@ public class Appraisal extends AffectiveAgent{
 			return 1.0;
 	}
 	
-	public void appraise(BidHistory opponentHistory, BayesianOpponentModel fOpponentModel) throws Exception {
+	public void appraise(BidHistory opponentHistory, OpponentModel fOpponentModel) throws Exception {
 		
 		if(isDesirable(utilitySpace, opponentHistory, fOpponentModel, EvaluationType.FAIR, 0.5))
-			System.out.println("+++++ Expressed Emotion: " + Emotions.HAPPY);
+			log("+++++ Expressed Emotion: " + Emotions.HAPPY);
 		else
-			System.out.println("+++++ Expressed Emotion: " + Emotions.SAD);
+			log("+++++ Expressed Emotion: " + Emotions.SAD);
 		
 //		if (appraisal.isControllable(utilitySpace, opponentBidHistory, opponentLastBid, 0.8, 0.1, 180, 0.1, 0.5))
 //			System.out.println("+++++ Expressed Emotion: " + Emotions.HOPE);
@@ -0,0 +1,146 @@
+package examplepackage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import negotiator.analysis.BidPoint;
+import negotiator.utility.UtilitySpace;
+import agents.bayesianopponentmodel.OpponentModel;
+
+/**
+ * An epsilon-approximation of the {@link ParetoFrontier} in at most
+ * ceil(1 / epsilon) + 1 points. My utility is cut into columns of width
+ * epsilon, and of every column only the point with the highest opponent
+ * utility is kept; the frontier is taken over those.
+ *
+ * Error bound: for every point of the exact frontier there is a kept point
+ * with at least the same opponent utility and at most epsilon less of my
+ * utility. Hence the Nash product found is at most epsilon below the exact
+ * one (utilities being in [0, 1]), and the Nash and Kalai-Smorodinsky
+ * points it gives may be up to a column away from the exact ones. Memory
+ * and the cost of those points do not depend on the size of the domain.
+ *
+ * @author M. Shayganfar
+ */
+public class ApproximateParetoFrontier implements ParetoSink
+{
+	private final BidCodec codec;
+	private final double epsilon;
+	private final double reservationA;
+	private final double reservationB;
+
+	/** Best point per column of my utility; codes are -1 for empty columns */
+	private final double[] utilitiesA;
+	private final double[] utilitiesB;
+	private final long[] codes;
+
+	private ParetoFrontier frontier;
+
+	public ApproximateParetoFrontier(BidCodec codec, double epsilon, double reservationA, double reservationB)
+	{
+		if (!(epsilon > 0 && epsilon <= 1))
+			throw new IllegalArgumentException("Epsilon must be in (0, 1]: " + epsilon);
+		this.codec = codec;
+		this.epsilon = epsilon;
+		this.reservationA = reservationA;
+		this.reservationB = reservationB;
+
+		int columns = (int) Math.ceil(1 / epsilon) + 1;
+		utilitiesA = new double[columns];
+		utilitiesB = new double[columns];
+		codes = new long[columns];
+		Arrays.fill(codes, -1);
+	}
+
+	/**
+	 * Approximate frontier of my space against an opponent model, over all
+	 * bids of the codec's domain. The compiled space and the scorer of the
+	 * model may be null.
+	 */
+	public static ApproximateParetoFrontier build(final UtilitySpace utilitySpace, final CompiledUtilitySpace compiled, final BidCodec codec, final OpponentModel opponentModel, final BatchUtilityScorer opponentScorer, final double epsilon) throws Exception
+	{
+		final double reservationA = ParetoFrontier.getReservationValue(utilitySpace);
+		if (opponentScorer == null)
+			ParetoFrontier.prepare(codec, opponentModel);
+
+		List<ApproximateParetoFrontier> partitions = ParallelDomainScan.scan(codec.size(), new ParallelDomainScan.Scanner<ApproximateParetoFrontier>() {
+			public ApproximateParetoFrontier scan(int partition, long from, long to) {
+				ApproximateParetoFrontier frontier = new ApproximateParetoFrontier(codec, epsilon, reservationA, 0);
+				ParetoFrontier.evaluate(utilitySpace, compiled, codec, opponentModel, opponentScorer, from, to, frontier);
+				return frontier;
+			}
+		});
+
+		ApproximateParetoFrontier frontier = partitions.get(0);
+		for (int p = 1; p < partitions.size(); p++)
+			frontier.addAll(partitions.get(p));
+		return frontier;
+	}
+
+	public double getEpsilon()
+	{
+		return epsilon;
+	}
+
+	public void add(long code, double utilityA, double utilityB)
+	{
+		int column = (int) Math.floor(utilityA / epsilon);
+		if (column < 0)
+			column = 0;
+		if (column >= codes.length)
+			column = codes.length - 1;
+
+		// Ties keep the first bid, as in the exact frontier
+		if (codes[column] < 0 || utilityB > utilitiesB[column]
+				|| (utilityB == utilitiesB[column] && (utilityA > utilitiesA[column] || (utilityA == utilitiesA[column] && code < codes[column]))))
+		{
+			utilitiesA[column] = utilityA;
+			utilitiesB[column] = utilityB;
+			codes[column] = code;
+			frontier = null;
+		}
+	}
+
+	/**
+	 * Adds the points kept for another part of the domain, built with the
+	 * same epsilon.
+	 */
+	public void addAll(ApproximateParetoFrontier other)
+	{
+		for (int column = 0; column < other.codes.length; column++)
+			if (other.codes[column] >= 0)
+				add(other.codes[column], other.utilitiesA[column], other.utilitiesB[column]);
+	}
+
+	/**
+	 * The kept points that are not dominated by another kept point.
+	 */
+	public ParetoFrontier getFrontier()
+	{
+		if (frontier == null)
+		{
+			frontier = new ParetoFrontier(codec, reservationA, reservationB);
+			for (int column = 0; column < codes.length; column++)
+				if (codes[column] >= 0)
+					frontier.add(codes[column], utilitiesA[column], utilitiesB[column]);
+		}
+		return frontier;
+	}
+
+	/**
+	 * See {@link ParetoFrontier#getNash()}; the error bound is in the class
+	 * comment.
+	 */
+	public BidPoint getNash()
+	{
+		return getFrontier().getNash();
+	}
+
+	/**
+	 * See {@link ParetoFrontier#getKalaiSmorodinsky()}.
+	 */
+	public BidPoint getKalaiSmorodinsky()
+	{
+		return getFrontier().getKalaiSmorodinsky();
+	}
+}
@@ -0,0 +1,399 @@
+package examplepackage;
+
+import negotiator.Bid;
+
+/**
+ * A Bayesian opponent model in the spirit of Genius' BayesianOpponentModel,
+ * with the hypotheses factorised per issue and pruned to a beam. Every issue
+ * has hypotheses on the shape of its evaluation (triangular, with its peak
+ * at one of the values, the first and last giving a falling and rising line)
+ * and on its weight (one of WEIGHT_LEVELS levels). The opponent is expected
+ * to concede by EXPECTED_CONCESSION_STEP per bid; every bid re-weights the
+ * hypotheses of an issue by how well, together with the expectation of the
+ * other issues, they explain it.
+ *
+ * After every update only the beamWidth most probable hypotheses of every
+ * factor are kept. From the second bid on, an update so takes time linear
+ * in the number of issues and the beam width, however many values the
+ * issues have. The part of the
+ * posterior mass that the pruning kept is reported by
+ * {@link #getRetainedMass()}.
+ *
+ * Utilities come from a table of expected weighted evaluations, see
+ * {@link SeparableOpponentModel}.
+ *
+ * @author M. Shayganfar
+ */
+public class BeamBayesianOpponentModel extends SeparableOpponentModel
+{
+	public static final int DEFAULT_BEAM_WIDTH = 8;
+
+	private static final int WEIGHT_LEVELS = 5;
+	private static final double SIGMA = 0.25;
+	private static final double EXPECTED_CONCESSION_STEP = 0.035;
+	private static final double MIN_EXPECTED_UTILITY = 0.1;
+
+	private final int beamWidth;
+
+	/** Per issue, the peak value index of every evaluation hypothesis kept */
+	private final int[][] peaks;
+	private final double[][] peakProbabilities;
+	private final int[] numberOfPeaks;
+
+	/** Per issue, the level of every weight hypothesis kept */
+	private final int[][] levels;
+	private final double[][] levelProbabilities;
+	private final int[] numberOfLevels;
+
+	private int numberOfBids = 0;
+	private double retainedMass = 1;
+	private boolean parallel = false;
+
+	public BeamBayesianOpponentModel(BidCodec codec)
+	{
+		this(codec, DEFAULT_BEAM_WIDTH);
+	}
+
+	public BeamBayesianOpponentModel(BidCodec codec, int beamWidth)
+	{
+		super(codec);
+		if (beamWidth < 1)
+			throw new IllegalArgumentException("Beam width must be positive: " + beamWidth);
+		this.beamWidth = beamWidth;
+
+		int n = codec.getNumberOfIssues();
+		peaks = new int[n][];
+		peakProbabilities = new double[n][];
+		numberOfPeaks = new int[n];
+		levels = new int[n][];
+		levelProbabilities = new double[n][];
+		numberOfLevels = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			int m = codec.getNumberOfValues(i);
+			peaks[i] = new int[m];
+			peakProbabilities[i] = new double[m];
+			for (int p = 0; p < m; p++)
+			{
+				peaks[i][p] = p;
+				peakProbabilities[i][p] = 1.0 / m;
+			}
+			numberOfPeaks[i] = m;
+
+			levels[i] = new int[WEIGHT_LEVELS];
+			levelProbabilities[i] = new double[WEIGHT_LEVELS];
+			for (int k = 0; k < WEIGHT_LEVELS; k++)
+			{
+				levels[i][k] = k + 1;
+				levelProbabilities[i][k] = 1.0 / WEIGHT_LEVELS;
+			}
+			numberOfLevels[i] = WEIGHT_LEVELS;
+		}
+	}
+
+	@Override
+	public void updateBeliefs(Bid bid) throws Exception
+	{
+		int n = codec.getNumberOfIssues();
+		final int[] values = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			values[i] = codec.getValueIndex(bid, i);
+			if (values[i] < 0)
+				throw new IllegalArgumentException("Not a bid of the domain: " + bid);
+		}
+
+		// The expectation of every factor, before this bid
+		final double[] evaluations = new double[n];
+		final double[] expectedLevels = new double[n];
+		forEachIssue(new IssueTask() {
+			public void run(int i) {
+				evaluations[i] = getExpectedEvaluation(i, values[i]);
+				expectedLevels[i] = getExpectedLevel(i);
+			}
+		});
+		double totalLevel = 0;
+		double weightedSum = 0;
+		for (int i = 0; i < n; i++)
+		{
+			totalLevel += expectedLevels[i];
+			weightedSum += expectedLevels[i] * evaluations[i];
+		}
+		final double finalTotalLevel = totalLevel;
+		final double finalWeightedSum = weightedSum;
+		final double expectedUtility = Math.max(MIN_EXPECTED_UTILITY, 1 - EXPECTED_CONCESSION_STEP * numberOfBids);
+
+		final double[] peakMasses = new double[n];
+		final double[] levelMasses = new double[n];
+		forEachIssue(new IssueTask() {
+			public void run(int i) {
+				// The utility under each hypothesis of issue i, the other
+				// issues taken at their expectation
+				double others = finalWeightedSum - expectedLevels[i] * evaluations[i];
+				int m = codec.getNumberOfValues(i);
+				for (int h = 0; h < numberOfPeaks[i]; h++)
+				{
+					double utility = (others + expectedLevels[i] * getEvaluation(peaks[i][h], values[i], m)) / finalTotalLevel;
+					peakProbabilities[i][h] *= getLikelihood(utility, expectedUtility);
+				}
+				for (int h = 0; h < numberOfLevels[i]; h++)
+				{
+					double utility = (others + levels[i][h] * evaluations[i]) / (finalTotalLevel - expectedLevels[i] + levels[i][h]);
+					levelProbabilities[i][h] *= getLikelihood(utility, expectedUtility);
+				}
+				peakMasses[i] = prune(peaks[i], peakProbabilities[i], numberOfPeaks, i);
+				levelMasses[i] = prune(levels[i], levelProbabilities[i], numberOfLevels, i);
+			}
+		});
+
+		// In issue order, so the parallel update gives the same mass
+		double mass = 1;
+		for (int i = 0; i < n; i++)
+		{
+			mass *= peakMasses[i];
+			mass *= levelMasses[i];
+		}
+
+		retainedMass = mass;
+		numberOfBids++;
+		beliefsChanged();
+	}
+
+	/**
+	 * Work on one issue, touching only the hypotheses of that issue.
+	 */
+	private interface IssueTask
+	{
+		void run(int issueIndex);
+	}
+
+	/**
+	 * Runs a task for every issue, on all cores if the updates are
+	 * parallel. The issues are independent, so the result is the same
+	 * either way.
+	 */
+	private void forEachIssue(final IssueTask task)
+	{
+		int n = codec.getNumberOfIssues();
+		int partitions = parallel ? Math.min(n, ParallelDomainScan.getNumberOfThreads()) : 1;
+		if (partitions <= 1)
+		{
+			for (int i = 0; i < n; i++)
+				task.run(i);
+			return;
+		}
+		// Future.get() publishes what the partitions wrote
+		ParallelDomainScan.scan(n, partitions, new ParallelDomainScan.Scanner<Void>() {
+			public Void scan(int partition, long from, long to) {
+				for (int i = (int) from; i < to; i++)
+					task.run(i);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Whether updates re-weight the issues on all cores. The result is bit
+	 * for bit the same as that of a sequential update. An update makes two
+	 * round trips to the executor of {@link ParallelDomainScan}, about 5
+	 * microseconds each, while the whole sequential update of a domain of
+	 * 60 issues takes some 20; so it is off by default.
+	 */
+	public void setParallel(boolean parallel)
+	{
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel()
+	{
+		return parallel;
+	}
+
+	/**
+	 * How likely the opponent offers a bid of the given utility when it is
+	 * expected to offer the expected utility.
+	 */
+	private static double getLikelihood(double utility, double expectedUtility)
+	{
+		double x = (expectedUtility - utility) / expectedUtility;
+		return Math.exp(-(x * x) / (2 * SIGMA * SIGMA)) / (SIGMA * Math.sqrt(2 * Math.PI));
+	}
+
+	/**
+	 * Normalises the posterior of a factor, then keeps its beamWidth most
+	 * probable hypotheses at the front of the arrays.
+	 *
+	 * @return the part of the posterior mass kept
+	 */
+	private double prune(int[] hypotheses, double[] probabilities, int[] counts, int issueIndex)
+	{
+		int count = counts[issueIndex];
+		double total = 0;
+		for (int h = 0; h < count; h++)
+			total += probabilities[h];
+		// The bid was too unlikely under every hypothesis to tell them apart
+		if (!(total > 0))
+		{
+			for (int h = 0; h < count; h++)
+				probabilities[h] = 1.0 / count;
+			total = 1;
+		}
+
+		// Selection of the most probable, which are few
+		int kept = Math.min(beamWidth, count);
+		double keptMass = 0;
+		for (int k = 0; k < kept; k++)
+		{
+			int best = k;
+			for (int h = k + 1; h < count; h++)
+				if (probabilities[h] > probabilities[best])
+					best = h;
+			swap(hypotheses, probabilities, k, best);
+			keptMass += probabilities[k];
+		}
+		for (int h = 0; h < kept; h++)
+			probabilities[h] /= keptMass;
+		counts[issueIndex] = kept;
+		return keptMass / total;
+	}
+
+	private static void swap(int[] hypotheses, double[] probabilities, int i, int j)
+	{
+		int hypothesis = hypotheses[i];
+		hypotheses[i] = hypotheses[j];
+		hypotheses[j] = hypothesis;
+		double probability = probabilities[i];
+		probabilities[i] = probabilities[j];
+		probabilities[j] = probability;
+	}
+
+	/**
+	 * Evaluation of a value index under the hypothesis with the given peak.
+	 */
+	private static double getEvaluation(int peak, int valueIndex, int numberOfValues)
+	{
+		if (valueIndex == peak)
+			return 1;
+		if (valueIndex < peak)
+			return (double) valueIndex / peak;
+		return (double) (numberOfValues - 1 - valueIndex) / (numberOfValues - 1 - peak);
+	}
+
+	private double getExpectedEvaluation(int issueIndex, int valueIndex)
+	{
+		int m = codec.getNumberOfValues(issueIndex);
+		double evaluation = 0;
+		for (int h = 0; h < numberOfPeaks[issueIndex]; h++)
+			evaluation += peakProbabilities[issueIndex][h] * getEvaluation(peaks[issueIndex][h], valueIndex, m);
+		return evaluation;
+	}
+
+	private double getExpectedLevel(int issueIndex)
+	{
+		double level = 0;
+		for (int h = 0; h < numberOfLevels[issueIndex]; h++)
+			level += levelProbabilities[issueIndex][h] * levels[issueIndex][h];
+		return level;
+	}
+
+	public int getBeamWidth()
+	{
+		return beamWidth;
+	}
+
+	public int getNumberOfBids()
+	{
+		return numberOfBids;
+	}
+
+	/**
+	 * The part of the posterior mass that the pruning of the last update
+	 * kept, over all factors; 1 before the first update.
+	 */
+	public double getRetainedMass()
+	{
+		return retainedMass;
+	}
+
+	/**
+	 * Number of hypotheses kept, over all issues.
+	 */
+	public int getNumberOfHypotheses()
+	{
+		int hypotheses = 0;
+		for (int i = 0; i < numberOfPeaks.length; i++)
+			hypotheses += numberOfPeaks[i] + numberOfLevels[i];
+		return hypotheses;
+	}
+
+	/**
+	 * The expected weight of an issue, by its index in
+	 * {@link BidCodec#getIssue(int)}; unlike OpponentModel's
+	 * getExpectedWeight, which takes an issue number.
+	 */
+	public double getExpectedWeightByIndex(int issueIndex)
+	{
+		double totalLevel = 0;
+		for (int i = 0; i < numberOfLevels.length; i++)
+			totalLevel += getExpectedLevel(i);
+		return getExpectedLevel(issueIndex) / totalLevel;
+	}
+
+	/**
+	 * The opponent's expected utility of a bid, before normalisation; issues
+	 * with a value outside the domain add nothing.
+	 */
+	public double getExpectedUtility(Bid bid)
+	{
+		double utility = 0;
+		for (int i = 0; i < numberOfPeaks.length; i++)
+		{
+			int value = codec.getValueIndex(bid, i);
+			if (value >= 0)
+				utility += getExpectedWeightByIndex(i) * getExpectedEvaluation(i, value);
+		}
+		return utility;
+	}
+
+	@Override
+	protected double[][] buildTable()
+	{
+		int n = numberOfPeaks.length;
+		double[] weights = new double[n];
+		double[][] evaluations = new double[n][];
+		double[] minEvaluations = new double[n];
+		double max = 0;
+		double min = 0;
+		for (int i = 0; i < n; i++)
+		{
+			weights[i] = getExpectedWeightByIndex(i);
+			int m = codec.getNumberOfValues(i);
+			evaluations[i] = new double[m];
+			minEvaluations[i] = Double.POSITIVE_INFINITY;
+			double maxEvaluation = Double.NEGATIVE_INFINITY;
+			for (int v = 0; v < m; v++)
+			{
+				evaluations[i][v] = getExpectedEvaluation(i, v);
+				minEvaluations[i] = Math.min(minEvaluations[i], evaluations[i][v]);
+				maxEvaluation = Math.max(maxEvaluation, evaluations[i][v]);
+			}
+			max += weights[i] * maxEvaluation;
+			min += weights[i] * minEvaluations[i];
+		}
+
+		double[][] contributions = new double[n][];
+		for (int i = 0; i < n; i++)
+		{
+			contributions[i] = new double[evaluations[i].length];
+			for (int v = 0; v < evaluations[i].length; v++)
+			{
+				if (max > min)
+					contributions[i][v] = weights[i] * (evaluations[i][v] - minEvaluations[i]) / (max - min);
+				else
+					// Every bid is as good as any other
+					contributions[i][v] = weights[i];
+			}
+		}
+		return contributions;
+	}
+}
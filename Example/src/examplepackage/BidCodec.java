@@ -0,0 +1,301 @@
+package examplepackage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.BidIterator;
+import negotiator.Domain;
+import negotiator.issue.Issue;
+import negotiator.issue.IssueDiscrete;
+import negotiator.issue.IssueInteger;
+import negotiator.issue.Value;
+import negotiator.issue.ValueInteger;
+
+/**
+ * Maps every bid of a discrete domain to a packed long and back. The code is
+ * the mixed-radix number formed by the value indices of the issues, the first
+ * issue being the least significant digit, so codes count the bids in
+ * {@link BidIterator} order.
+ *
+ * The codec also interns bids: equal bids passed through
+ * {@link #intern(Bid)} come back as the same instance.
+ *
+ * @author M. Shayganfar
+ */
+public class BidCodec
+{
+	private static final int MAX_INTERNED_BIDS = 1 << 20;
+
+	private final Domain domain;
+	private final Issue[] issues;
+	private final int[] issueNumbers;
+	private final int[] numberOfValues;
+	private final long[] strides;
+	private final Value[][] values;
+	private final HashMap<Value, Integer>[] valueIndices;
+	private final long size;
+
+	/** Open addressing table from code to interned bid */
+	private long[] internedCodes = new long[64];
+	private Bid[] internedBids = new Bid[64];
+	private int internedSize = 0;
+
+	/**
+	 * Use {@link #canEncode(Domain)} first.
+	 */
+	@SuppressWarnings("unchecked")
+	public BidCodec(Domain domain)
+	{
+		if (!canEncode(domain))
+			throw new IllegalArgumentException("Domain can not be encoded: it has continuous issues or too many bids");
+
+		this.domain = domain;
+		List<Issue> domainIssues = domain.getIssues();
+		int n = domainIssues.size();
+		issues = domainIssues.toArray(new Issue[n]);
+		issueNumbers = new int[n];
+		numberOfValues = new int[n];
+		strides = new long[n];
+		values = new Value[n][];
+		valueIndices = new HashMap[n];
+
+		long stride = 1;
+		for (int i = 0; i < n; i++)
+		{
+			Issue issue = issues[i];
+			issueNumbers[i] = issue.getNumber();
+			numberOfValues[i] = getNumberOfValues(issue);
+			strides[i] = stride;
+			stride *= numberOfValues[i];
+
+			values[i] = new Value[numberOfValues[i]];
+			valueIndices[i] = new HashMap<Value, Integer>();
+			for (int j = 0; j < numberOfValues[i]; j++)
+			{
+				if (issue instanceof IssueDiscrete)
+					values[i][j] = ((IssueDiscrete) issue).getValue(j);
+				else
+					values[i][j] = new ValueInteger(((IssueInteger) issue).getLowerBound() + j);
+				valueIndices[i].put(values[i][j], j);
+			}
+		}
+		size = stride;
+		Arrays.fill(internedCodes, -1);
+	}
+
+	/**
+	 * A domain can be encoded if all its issues are discrete or integer and
+	 * it has no more than {@link Long#MAX_VALUE} bids.
+	 */
+	public static boolean canEncode(Domain domain)
+	{
+		long size = 1;
+		for (Issue issue : domain.getIssues())
+		{
+			if (!(issue instanceof IssueDiscrete || issue instanceof IssueInteger))
+				return false;
+			int n = getNumberOfValues(issue);
+			if (n <= 0 || size > Long.MAX_VALUE / n)
+				return false;
+			size *= n;
+		}
+		return true;
+	}
+
+	private static int getNumberOfValues(Issue issue)
+	{
+		if (issue instanceof IssueDiscrete)
+			return ((IssueDiscrete) issue).getNumberOfValues();
+		IssueInteger issueInteger = (IssueInteger) issue;
+		return issueInteger.getUpperBound() - issueInteger.getLowerBound() + 1;
+	}
+
+	public Domain getDomain()
+	{
+		return domain;
+	}
+
+	/**
+	 * Number of bids in the domain, codes run from 0 to size - 1.
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	public int getNumberOfIssues()
+	{
+		return issues.length;
+	}
+
+	/**
+	 * The issue at the given index of {@link Domain#getIssues()}.
+	 */
+	public Issue getIssue(int issueIndex)
+	{
+		return issues[issueIndex];
+	}
+
+	public int getNumberOfValues(int issueIndex)
+	{
+		return numberOfValues[issueIndex];
+	}
+
+	/**
+	 * Weight of a value index of the given issue in a code.
+	 */
+	public long getStride(int issueIndex)
+	{
+		return strides[issueIndex];
+	}
+
+	public Value getValue(int issueIndex, int valueIndex)
+	{
+		return values[issueIndex][valueIndex];
+	}
+
+	/**
+	 * The value index of the given issue in a code.
+	 */
+	public int getValueIndex(long code, int issueIndex)
+	{
+		return (int) ((code / strides[issueIndex]) % numberOfValues[issueIndex]);
+	}
+
+	/**
+	 * The value index of the given issue in a bid, or -1 if the bid has a
+	 * value that is not in the domain.
+	 */
+	public int getValueIndex(Bid bid, int issueIndex)
+	{
+		try
+		{
+			Integer valueIndex = valueIndices[issueIndex].get(bid.getValue(issueNumbers[issueIndex]));
+			return valueIndex == null ? -1 : valueIndex;
+		} catch (Exception e)
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the code of a bid, or -1 if it is not a bid of the domain.
+	 */
+	public long encode(Bid bid)
+	{
+		long code = 0;
+		for (int i = 0; i < issues.length; i++)
+		{
+			int valueIndex = getValueIndex(bid, i);
+			if (valueIndex < 0)
+				return -1;
+			code += valueIndex * strides[i];
+		}
+		return code;
+	}
+
+	/**
+	 * Builds a new bid from its code.
+	 */
+	public Bid decode(long code)
+	{
+		HashMap<Integer, Value> bidValues = new HashMap<Integer, Value>();
+		for (int i = 0; i < issues.length; i++)
+		{
+			bidValues.put(issueNumbers[i], values[i][(int) (code % numberOfValues[i])]);
+			code /= numberOfValues[i];
+		}
+		try
+		{
+			return new Bid(domain, bidValues);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the interned bid equal to the given one. Bids outside the
+	 * domain are returned as they are.
+	 */
+	public Bid intern(Bid bid)
+	{
+		if (bid == null)
+			return null;
+		long code = encode(bid);
+		if (code < 0)
+			return bid;
+		return intern(code, bid);
+	}
+
+	/**
+	 * Returns the interned bid with the given code, decoding it if needed.
+	 */
+	public Bid getBid(long code)
+	{
+		return intern(code, null);
+	}
+
+	/**
+	 * The slot of a code in the table, or the empty slot where it goes.
+	 */
+	private int findSlot(long code)
+	{
+		int mask = internedCodes.length - 1;
+		int slot = hash(code) & mask;
+		while (internedCodes[slot] != -1 && internedCodes[slot] != code)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private synchronized Bid intern(long code, Bid bid)
+	{
+		int slot = findSlot(code);
+		if (internedCodes[slot] == code)
+			return internedBids[slot];
+
+		if (bid == null)
+			bid = decode(code);
+
+		// Once the table is full we stop interning rather than grow forever
+		if (internedSize >= MAX_INTERNED_BIDS)
+			return bid;
+
+		internedCodes[slot] = code;
+		internedBids[slot] = bid;
+		internedSize++;
+		if (2 * internedSize > internedCodes.length)
+			growInterned();
+		return bid;
+	}
+
+	private void growInterned()
+	{
+		long[] oldCodes = internedCodes;
+		Bid[] oldBids = internedBids;
+		internedCodes = new long[2 * oldCodes.length];
+		internedBids = new Bid[2 * oldBids.length];
+		Arrays.fill(internedCodes, -1);
+
+		int mask = internedCodes.length - 1;
+		for (int i = 0; i < oldCodes.length; i++)
+		{
+			if (oldCodes[i] == -1)
+				continue;
+			int slot = hash(oldCodes[i]) & mask;
+			while (internedCodes[slot] != -1)
+				slot = (slot + 1) & mask;
+			internedCodes[slot] = oldCodes[i];
+			internedBids[slot] = oldBids[i];
+		}
+	}
+
+	private static int hash(long code)
+	{
+		long h = code * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
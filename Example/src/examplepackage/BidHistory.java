@@ -1,10 +1,14 @@
 package examplepackage;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.RandomAccess;
 import negotiator.Bid;
 import negotiator.BidIterator;
 import negotiator.Domain;
@@ -18,14 +22,65 @@ public class BidHistory implements Iterable<BidDetails>
 	List<BidDetails> history;
 	private final boolean TEST_EQUIVALENCE = false;
 	
+	/**
+	 * Running aggregates over {@link #history}, kept up to date by
+	 * {@link #add(BidDetails)} so that the utility queries are O(1). They
+	 * follow the same tie-breaking as a scan in history order would.
+	 */
+	private double maxUtility = -1;
+	private double minUtility = -1;
+	private double totalUtility = 0;
+	private int bestPosition = -1;
+	private boolean aggregatesValid = true;
+	
+	/**
+	 * Time index. Bids are normally appended in non-decreasing time, which
+	 * lets the time filters find their window by binary search. The prefix
+	 * counts of bids with a utility outside (0, 1] tell whether such a window
+	 * can be handed out as a view without changing what the filter returns.
+	 */
+	private boolean timeOrdered = true;
+	private int[] outsideUnitRange;
+	private int outsideUnitRangeOffset = 0;
+	
+	/**
+	 * Optional utility index, see {@link #enableUtilityIndex()}.
+	 */
+	private BidUtilityIndex utilityIndex;
+	
 	public BidHistory()
 	{
 		this.history = new ArrayList<BidDetails>();
+		this.outsideUnitRange = new int[16];
 	}
 	
 	public BidHistory(BidHistory b)
 	{
 		this.history = new ArrayList<BidDetails>(b.getHistory());
+		rebuildIndex();
+	}
+	
+	/**
+	 * For subclasses that store the bids themselves, see
+	 * {@link ColumnarBidHistory}. The list must be empty.
+	 */
+	protected BidHistory(List<BidDetails> history)
+	{
+		this.history = history;
+		this.outsideUnitRange = new int[16];
+	}
+	
+	/**
+	 * Read-only view on the bids [from, to) of the given history. The view
+	 * stays valid while the history is only appended to.
+	 */
+	private BidHistory(BidHistory b, int from, int to)
+	{
+		this.history = new HistoryWindow(b.history, from, to);
+		this.outsideUnitRange = b.outsideUnitRange;
+		this.outsideUnitRangeOffset = b.outsideUnitRangeOffset + from;
+		this.timeOrdered = true;
+		this.aggregatesValid = false;
 	}
 	
 	/**
@@ -35,6 +90,25 @@ public class BidHistory implements Iterable<BidDetails>
 	{
 		this();
 		Domain domain = u.getDomain();
+		BidCodec codec = BidCodec.canEncode(domain) ? new BidCodec(domain) : null;
+		if (codec != null && codec.size() <= Integer.MAX_VALUE)
+		{
+			// Evaluate on all cores; codes count the bids in BidIterator order
+			Bid[] bids = new Bid[(int) codec.size()];
+			CompiledUtilitySpace compiled = CompiledUtilitySpace.compile(u, codec);
+			double[] utilities;
+			if (compiled != null)
+				utilities = GrayCodeWalk.getUtilities(compiled);
+			else
+				utilities = ParallelDomainScan.getUtilities(u, codec, bids);
+			for (int code = 0; code < bids.length; code++)
+			{
+				Bid b = (bids[code] != null) ? bids[code] : codec.decode(code);
+				add(new BidDetails(b, Double.isNaN(utilities[code]) ? 0 : utilities[code], 0));
+			}
+			enableUtilityIndex();
+			return;
+		}
 		BidIterator myBidIterator = new BidIterator(domain);
 		while (myBidIterator.hasNext()) 
 		{
@@ -50,30 +124,222 @@ public class BidHistory implements Iterable<BidDetails>
 			BidDetails bidDetails = new BidDetails(b, utility, 0);
 			add(bidDetails);
 		}
+		enableUtilityIndex();
 	}
 	
+	/**
+	 * Maintains an index ordered by utility from now on, which makes
+	 * {@link #getBidDetailsOfUtility(double)},
+	 * {@link #filterBetweenUtility(double, double)} and
+	 * {@link #getBestBidHistory(int)} logarithmic instead of linear. Worth it
+	 * for large histories that are queried often, such as a whole domain.
+	 */
+	public void enableUtilityIndex()
+	{
+		if (utilityIndex != null)
+			return;
+		utilityIndex = new BidUtilityIndex();
+		for (int i = 0; i < history.size(); i++)
+			utilityIndex.add(i, utilityAt(i));
+	}
+	
+	/**
+	 * Returns the bids with minT < time <= maxT (and a utility in (0, 1]). If
+	 * the history is ordered in time, this is a read-only view found by
+	 * binary search instead of a copy.
+	 */
 	public BidHistory filterBetweenTime(double minT, double maxT)
 	{
-		return filterBetween(0, 1, minT, maxT);		
+		if (!timeOrdered)
+			return filterBetween(0, 1, minT, maxT);
+		
+		int from = indexAfterTime(minT);
+		int to = Math.max(from, indexAfterTime(maxT));
+		
+		if (countOutsideUnitRange(from, to) == 0)
+			return new BidHistory(this, from, to);
+		
+		return filterWindow(0, 1, from, to);
 	}
 
 	public BidHistory filterBetween(double minU, double maxU, double minT, double maxT)
+	{
+		if (!timeOrdered)
+		{
+			BidHistory bidHistory = new BidHistory();
+			for (int i = 0; i < history.size(); i++)
+			{
+				if (minU < utilityAt(i) &&
+						utilityAt(i) <= maxU &&
+						minT < timeAt(i) &&
+						timeAt(i) <= maxT)
+					bidHistory.add(history.get(i));
+			}
+			return bidHistory;
+		}
+		
+		int from = indexAfterTime(minT);
+		int to = Math.max(from, indexAfterTime(maxT));
+		return filterWindow(minU, maxU, from, to);
+	}
+	
+	/**
+	 * Copies the bids in [from, to) that have minU < utility <= maxU.
+	 */
+	private BidHistory filterWindow(double minU, double maxU, int from, int to)
 	{
 		BidHistory bidHistory = new BidHistory();
-		for (BidDetails b : history)
+		for (int i = from; i < to; i++)
 		{
-			if (minU < b.getMyUndiscountedUtil() &&
-					b.getMyUndiscountedUtil() <= maxU &&
-					minT < b.getTime() &&
-					b.getTime() <= maxT)
-				bidHistory.add(b);
+			if (minU < utilityAt(i) &&
+					utilityAt(i) <= maxU)
+				bidHistory.add(history.get(i));
 		}
-		return bidHistory;			
+		return bidHistory;
+	}
+	
+	/**
+	 * Index of the first bid made strictly after time t, assuming the
+	 * history is ordered in time.
+	 */
+	private int indexAfterTime(double t)
+	{
+		int low = 0;
+		int high = history.size();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (timeAt(mid) <= t)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	private int countOutsideUnitRange(int from, int to)
+	{
+		return outsideUnitRange[outsideUnitRangeOffset + to] - outsideUnitRange[outsideUnitRangeOffset + from];
+	}
+	
+	/**
+	 * Returns the bids with minU < utility <= maxU, in history order.
+	 */
+	public BidHistory filterBetweenUtility(double minU, double maxU)
+	{
+		if (utilityIndex == null)
+			return filterWindow(minU, maxU, 0, history.size());
+		
+		BidHistory bidHistory = new BidHistory();
+		for (int position : utilityIndex.getPositionsBetween(minU, maxU))
+			bidHistory.add(history.get(position));
+		return bidHistory;
 	}
 	
 	public void add(BidDetails b)
 	{
 		history.add(b);
+		indexLast();
+	}
+	
+	/**
+	 * Utility of the bid at the given position, without having to go
+	 * through its {@link BidDetails}.
+	 */
+	protected double utilityAt(int position)
+	{
+		return history.get(position).getMyUndiscountedUtil();
+	}
+	
+	/**
+	 * Time of the bid at the given position.
+	 */
+	protected double timeAt(int position)
+	{
+		return history.get(position).getTime();
+	}
+	
+	/**
+	 * Brings the indexes and aggregates up to date with the last bid of
+	 * {@link #history}. Subclasses that append to their own storage call this.
+	 */
+	protected void indexLast()
+	{
+		int position = history.size() - 1;
+		updateIndex(position);
+		updateAggregates(position, position == 0);
+		if (utilityIndex != null)
+			utilityIndex.add(position, utilityAt(position));
+	}
+	
+	private void updateIndex(int position)
+	{
+		int size = position + 1;
+		if (position > 0 && timeAt(position) < timeAt(position - 1))
+			timeOrdered = false;
+		
+		if (size >= outsideUnitRange.length)
+			outsideUnitRange = Arrays.copyOf(outsideUnitRange, 2 * outsideUnitRange.length);
+		
+		double utility = utilityAt(position);
+		boolean outside = !(0 < utility && utility <= 1);
+		outsideUnitRange[size] = outsideUnitRange[size - 1] + (outside ? 1 : 0);
+	}
+	
+	/**
+	 * Rebuilds the time index and the aggregates, needed whenever
+	 * {@link #history} is replaced or reordered.
+	 */
+	private void rebuildIndex()
+	{
+		timeOrdered = true;
+		outsideUnitRange = new int[history.size() + 16];
+		outsideUnitRangeOffset = 0;
+		for (int i = 0; i < history.size(); i++)
+			updateIndex(i);
+		recomputeAggregates();
+		
+		if (utilityIndex != null)
+		{
+			utilityIndex = null;
+			enableUtilityIndex();
+		}
+	}
+	
+	private void updateAggregates(int position, boolean first)
+	{
+		double utility = utilityAt(position);
+		
+		if (utility >= maxUtility || first)
+		{
+			maxUtility = utility;
+			bestPosition = position;
+		}
+		if (utility <= minUtility || first)
+			minUtility = utility;
+		totalUtility += utility;
+	}
+	
+	/**
+	 * Rebuilds the running aggregates, needed whenever {@link #history} is
+	 * replaced or reordered.
+	 */
+	private void recomputeAggregates()
+	{
+		maxUtility = -1;
+		minUtility = -1;
+		totalUtility = 0;
+		bestPosition = -1;
+		
+		for (int i = 0; i < history.size(); i++)
+			updateAggregates(i, i == 0);
+		aggregatesValid = true;
+	}
+	
+	private void ensureAggregates()
+	{
+		if (!aggregatesValid)
+			recomputeAggregates();
 	}
 	
 	public BidDetails getLastBidDetails()
@@ -125,42 +391,36 @@ public class BidHistory implements Iterable<BidDetails>
 	 */
 	public BidDetails getBidDetailsOfUtility(double u)
 	{
+		if (utilityIndex != null)
+		{
+			int position = utilityIndex.getPositionOfUtility(u);
+			return position < 0 ? null : history.get(position);
+		}
+		
 		double minDistance = -1;
-		BidDetails closestBid = null;
-		for (BidDetails b : history)
+		int closestPosition = -1;
+		for (int i = 0; i < history.size(); i++)
 		{
-			double utility = b.getMyUndiscountedUtil();
+			double utility = utilityAt(i);
 			if (Math.abs(utility - u) <= minDistance || minDistance == -1)
 			{
 				minDistance = Math.abs(utility - u);
-				closestBid = b;
+				closestPosition = i;
 			}
 		}
-		return closestBid;
+		return closestPosition < 0 ? null : history.get(closestPosition);
 	}
 	
 	public double getMaximumUtility()
 	{
-		double max = -1;
-		for (BidDetails b : history)
-		{
-			double utility = b.getMyUndiscountedUtil();
-			if (utility >= max || max == -1)
-				max = utility;
-		}
-		return max;		
+		ensureAggregates();
+		return maxUtility;
 	}
 
 	public double getMinimumUtility()
 	{
-		double min = -1;
-		for (BidDetails b : history)
-		{
-			double utility = b.getMyUndiscountedUtil();
-			if (utility <= min || min == -1)
-				min = utility;
-		}
-		return min;		
+		ensureAggregates();
+		return minUtility;
 	}
 	
 	/**
@@ -179,38 +439,126 @@ public class BidHistory implements Iterable<BidDetails>
 	 */
 	public BidDetails getBestBidDetails()
 	{
-		double max = -1;
-		BidDetails bestBid = null;
-		for (BidDetails b : history)
-		{
-			double utility = b.getMyUndiscountedUtil();
-			if (utility >= max || max == -1)
-			{
-				max = utility;
-				bestBid = b;
-			}
-		}
-		return bestBid;
+		ensureAggregates();
+		return bestPosition < 0 ? null : history.get(bestPosition);
 	}
 	
 	/**
-	 * Gets the history part of the best n (or less) bids for me.
+	 * Gets the history part of the best n (or less) bids for me. The bids are
+	 * selected with a bounded heap in O(size log n) and come out in the order
+	 * {@link #sortToUtility()} would put them.
 	 */
 	public BidHistory getBestBidHistory(int n)
 	{
-		BidHistory copySortedToUtility = getCopySortedToUtility();
-		BidHistory best = new BidHistory();
-		int i = 0;
-		for (BidDetails b : copySortedToUtility)
+		// As before, at least one bid is returned
+		int k = Math.min(Math.max(n, 1), size());
+		BidDetails[] heap = new BidDetails[k];
+		int[] heapPositions = new int[k];
+		Comparator<BidDetails> comparator = getUtilityComparator();
+		
+		int heapSize = 0;
+		if (utilityIndex != null)
+		{
+			// Only the bids tied with or better than the n-th best can make it
+			for (int position : utilityIndex.getPositionsOfBest(k))
+				heapSize = offer(heap, heapPositions, heapSize, position, comparator);
+		}
+		else
+		{
+			for (int position = 0; position < history.size(); position++)
+				heapSize = offer(heap, heapPositions, heapSize, position, comparator);
+		}
+		
+		// Sorting the heap itself, worst first, leaves it in order best first
+		for (int end = k - 1; end > 0; end--)
 		{
-			best.add(b);
-			i++;
-			if (i >= n)
-				break;
+			swap(heap, heapPositions, 0, end);
+			siftDown(heap, heapPositions, 0, end, comparator);
 		}
+		
+		BidHistory best = new BidHistory();
+		for (int i = 0; i < k; i++)
+			best.add(heap[i]);
 		return best;
 	}
 	
+	/**
+	 * Order of {@link #sortToUtility()}: the comparator, then the position in
+	 * the history as the sort is stable.
+	 */
+	private static int compare(BidDetails b1, int position1, BidDetails b2, int position2, Comparator<BidDetails> comparator)
+	{
+		int result = comparator.compare(b1, b2);
+		if (result != 0)
+			return result;
+		return position1 < position2 ? -1 : (position1 == position2 ? 0 : 1);
+	}
+	
+	/**
+	 * Offers a bid to a heap that keeps the best bids with the worst one on
+	 * top. Returns the new heap size.
+	 */
+	private int offer(BidDetails[] heap, int[] heapPositions, int heapSize, int position, Comparator<BidDetails> comparator)
+	{
+		if (heapSize < heap.length)
+		{
+			int i = heapSize;
+			heap[i] = history.get(position);
+			heapPositions[i] = position;
+			while (i > 0)
+			{
+				int parent = (i - 1) / 2;
+				if (compare(heap[parent], heapPositions[parent], heap[i], heapPositions[i], comparator) >= 0)
+					break;
+				swap(heap, heapPositions, parent, i);
+				i = parent;
+			}
+			return heapSize + 1;
+		}
+		
+		// The comparators order by utility first, so a lower utility cannot
+		// make it and we need not look at its details
+		if (utilityAt(position) < heap[0].getMyUndiscountedUtil())
+			return heapSize;
+		
+		BidDetails b = history.get(position);
+		if (compare(b, position, heap[0], heapPositions[0], comparator) < 0)
+		{
+			heap[0] = b;
+			heapPositions[0] = position;
+			siftDown(heap, heapPositions, 0, heapSize, comparator);
+		}
+		return heapSize;
+	}
+	
+	private static void siftDown(BidDetails[] heap, int[] heapPositions, int i, int heapSize, Comparator<BidDetails> comparator)
+	{
+		while (true)
+		{
+			int worst = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < heapSize && compare(heap[left], heapPositions[left], heap[worst], heapPositions[worst], comparator) > 0)
+				worst = left;
+			if (right < heapSize && compare(heap[right], heapPositions[right], heap[worst], heapPositions[worst], comparator) > 0)
+				worst = right;
+			if (worst == i)
+				return;
+			swap(heap, heapPositions, i, worst);
+			i = worst;
+		}
+	}
+	
+	private static void swap(BidDetails[] heap, int[] heapPositions, int i, int j)
+	{
+		BidDetails b = heap[i];
+		heap[i] = heap[j];
+		heap[j] = b;
+		int position = heapPositions[i];
+		heapPositions[i] = heapPositions[j];
+		heapPositions[j] = position;
+	}
+	
 	public BidDetails getRandom()
 	{
 		int size = size();
@@ -234,18 +582,22 @@ public class BidHistory implements Iterable<BidDetails>
 		int size = size();
 		if (size == 0)
 			return 0;
-		double totalUtil = 0;
-		for (BidDetails b : history)
-			totalUtil += b.getMyUndiscountedUtil();
-		return totalUtil / size;
+		ensureAggregates();
+		return totalUtility / size;
 	}
 	
 	public void sortToUtility()
+	{
+		Collections.sort(history, getUtilityComparator());
+		rebuildIndex();
+	}
+	
+	private Comparator<BidDetails> getUtilityComparator()
 	{
 		if (TEST_EQUIVALENCE) {
-			Collections.sort(history, new BidDetailsStrictSorterUtility());
+			return new BidDetailsStrictSorterUtility();
 		} else {
-			Collections.sort(history, new BidDetailsSorterUtility());
+			return new BidDetailsSorterUtility();
 		}
 	}
 	
@@ -266,4 +618,35 @@ public class BidHistory implements Iterable<BidDetails>
 	{
 		return history.iterator();
 	}
+	
+	/**
+	 * Read-only window on an append-only list of bids.
+	 */
+	private static class HistoryWindow extends AbstractList<BidDetails> implements RandomAccess
+	{
+		private final List<BidDetails> list;
+		private final int from;
+		private final int to;
+		
+		HistoryWindow(List<BidDetails> list, int from, int to)
+		{
+			this.list = list;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		public BidDetails get(int index)
+		{
+			if (index < 0 || index >= to - from)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			return list.get(from + index);
+		}
+		
+		@Override
+		public int size()
+		{
+			return to - from;
+		}
+	}
 }
@@ -0,0 +1,314 @@
+package examplepackage;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import negotiator.Bid;
+import negotiator.analysis.BidPoint;
+import negotiator.analysis.BidSpace;
+import negotiator.utility.UtilitySpace;
+import agents.bayesianopponentmodel.OpponentModel;
+import agents.bayesianopponentmodel.OpponentModelUtilSpace;
+
+/**
+ * Builds the {@link BidSpace} (or, for domains of MIN_FRONTIER_DOMAINSIZE
+ * bids or more, the {@link ParetoFrontier}) of my utility space against an
+ * opponent model at most once per update of that model, and serves its
+ * Nash and Kalai-Smorodinsky points to everyone who asks until the model
+ * changes. Likewise it compiles a model that is not a
+ * {@link SeparableOpponentModel}, such as Genius' Bayesian one, into a
+ * {@link CompiledOpponentModel} once per update, so that its bids are
+ * scored from a table too. Whoever updates a model must call
+ * {@link #beliefsUpdated(OpponentModel)}.
+ *
+ * Every model has its own entry, so a model updated on another thread (see
+ * {@link OpponentModelWorker}) neither invalidates nor waits for the bid
+ * space of the model the agent is using.
+ *
+ * @author M. Shayganfar
+ */
+public class BidSpaceCache
+{
+	/**
+	 * From this many bids on, a BidSpace is too slow and big to build every
+	 * turn, and encodable domains get a {@link ParetoFrontier} instead.
+	 * Smaller domains keep the BidSpace, with its own tie breaking.
+	 */
+	public static final long MIN_FRONTIER_DOMAINSIZE = 200000;
+
+	private final UtilitySpace utilitySpace;
+	/** May be null */
+	private final CompiledUtilitySpace compiledUtilitySpace;
+	/** May be null, then there is no {@link ParetoFrontier} */
+	private final BidCodec codec;
+
+	private final Map<OpponentModel, Entry> entries = new IdentityHashMap<OpponentModel, Entry>();
+
+	public BidSpaceCache(UtilitySpace utilitySpace, CompiledUtilitySpace compiledUtilitySpace, BidCodec codec)
+	{
+		this.utilitySpace = utilitySpace;
+		this.compiledUtilitySpace = compiledUtilitySpace;
+		this.codec = codec;
+	}
+
+	public UtilitySpace getUtilitySpace()
+	{
+		return utilitySpace;
+	}
+
+	/**
+	 * Whether {@link #getParetoFrontier(OpponentModel)} and
+	 * {@link #getApproximateParetoFrontier(OpponentModel, double)}
+	 * can be used.
+	 */
+	public boolean hasParetoFrontier()
+	{
+		return codec != null;
+	}
+
+	private synchronized Entry getEntry(OpponentModel opponentModel)
+	{
+		Entry entry = entries.get(opponentModel);
+		if (entry == null)
+		{
+			entry = new Entry(opponentModel);
+			entries.put(opponentModel, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Invalidates the bid space of a model; the next request builds a new
+	 * one.
+	 */
+	public void beliefsUpdated(OpponentModel opponentModel)
+	{
+		getEntry(opponentModel).invalidate();
+	}
+
+	public BidSpace getBidSpace(OpponentModel opponentModel) throws Exception
+	{
+		return getEntry(opponentModel).getBidSpace();
+	}
+
+	/**
+	 * The Nash point, from the {@link ParetoFrontier} built on all cores if
+	 * there is a codec and the domain has MIN_FRONTIER_DOMAINSIZE bids or
+	 * more, or else from the {@link BidSpace}.
+	 */
+	public BidPoint getNash(OpponentModel opponentModel) throws Exception
+	{
+		return getEntry(opponentModel).getNash();
+	}
+
+	/**
+	 * The Kalai-Smorodinsky point, from the same source as
+	 * {@link #getNash(OpponentModel)}.
+	 */
+	public BidPoint getKalaiSmorodinsky(OpponentModel opponentModel) throws Exception
+	{
+		return getEntry(opponentModel).getKalaiSmorodinsky();
+	}
+
+	/**
+	 * The Nash point if it has already been found for the current beliefs
+	 * of the model, else null; nothing is built.
+	 */
+	public BidPoint getBuiltNash(OpponentModel opponentModel) throws Exception
+	{
+		return getEntry(opponentModel).getBuiltNash();
+	}
+
+	/**
+	 * The Kalai-Smorodinsky point if the bid space or frontier it comes from
+	 * has already been built for the current beliefs of the model, else
+	 * null; nothing is built.
+	 */
+	public BidPoint getBuiltKalaiSmorodinsky(OpponentModel opponentModel) throws Exception
+	{
+		return getEntry(opponentModel).getBuiltKalaiSmorodinsky();
+	}
+
+	/**
+	 * The Pareto frontier against the opponent model, for domains too big
+	 * for a {@link BidSpace}. Needs a codec.
+	 */
+	public ParetoFrontier getParetoFrontier(OpponentModel opponentModel) throws Exception
+	{
+		return getEntry(opponentModel).getParetoFrontier();
+	}
+
+	/**
+	 * Whether the Pareto frontier against the model is built, for its
+	 * current beliefs.
+	 */
+	public boolean isParetoFrontierBuilt(OpponentModel opponentModel)
+	{
+		return getEntry(opponentModel).isParetoFrontierBuilt();
+	}
+
+	/**
+	 * A scorer of the opponent's normalised utility for the current beliefs
+	 * of the model, or null if there is no codec or the model can not be
+	 * compiled. A model that is not separable is compiled on the first call
+	 * after its update.
+	 */
+	public BatchUtilityScorer getOpponentScorer(OpponentModel opponentModel)
+	{
+		return getEntry(opponentModel).getOpponentScorer();
+	}
+
+	/**
+	 * The normalised utilities of the bids into utilities, from the scorer
+	 * of the model if it has one or the bids are enough to pay for
+	 * compiling it, else bid by bid from the model (NaN where it fails).
+	 */
+	public void getNormalizedUtilities(OpponentModel opponentModel, Bid[] bids, double[] utilities)
+	{
+		Entry entry = getEntry(opponentModel);
+		if (codec != null && (entry.hasOpponentScorer() || opponentModel instanceof SeparableOpponentModel
+				|| bids.length >= CompiledOpponentModel.getCompileCost(codec)))
+		{
+			BatchUtilityScorer scorer = entry.getOpponentScorer();
+			if (scorer != null)
+			{
+				scorer.score(bids, utilities);
+				return;
+			}
+		}
+		SeparableOpponentModel.getNormalizedUtilities(opponentModel, bids, utilities);
+	}
+
+	/**
+	 * The approximate Pareto frontier against the opponent model with the
+	 * given epsilon. Needs a codec.
+	 */
+	public ApproximateParetoFrontier getApproximateParetoFrontier(OpponentModel opponentModel, double epsilon) throws Exception
+	{
+		return getEntry(opponentModel).getApproximateParetoFrontier(epsilon);
+	}
+
+	/**
+	 * What is built against one model, since its last update.
+	 */
+	private class Entry
+	{
+		private final OpponentModel opponentModel;
+
+		private BidSpace bidSpace;
+		private BidPoint nash;
+		private BidPoint kalaiSmorodinsky;
+		private ParetoFrontier paretoFrontier;
+		private ApproximateParetoFrontier approximateParetoFrontier;
+		/** Null if the model could not be compiled */
+		private BatchUtilityScorer opponentScorer;
+		private boolean compiled;
+
+		Entry(OpponentModel opponentModel)
+		{
+			this.opponentModel = opponentModel;
+		}
+
+		synchronized void invalidate()
+		{
+			bidSpace = null;
+			nash = null;
+			kalaiSmorodinsky = null;
+			paretoFrontier = null;
+			approximateParetoFrontier = null;
+			opponentScorer = null;
+			compiled = false;
+		}
+
+		synchronized BidSpace getBidSpace() throws Exception
+		{
+			if (bidSpace == null)
+				bidSpace = new BidSpace(utilitySpace, new OpponentModelUtilSpace(opponentModel), true, false);
+			return bidSpace;
+		}
+
+		synchronized BidPoint getNash() throws Exception
+		{
+			if (isFrontierDomain())
+				return getParetoFrontier().getNash();
+			if (nash == null)
+				nash = getBidSpace().getNash();
+			return nash;
+		}
+
+		synchronized BidPoint getKalaiSmorodinsky() throws Exception
+		{
+			if (isFrontierDomain())
+				return getParetoFrontier().getKalaiSmorodinsky();
+			if (kalaiSmorodinsky == null)
+				kalaiSmorodinsky = getBidSpace().getKalaiSmorodinsky();
+			return kalaiSmorodinsky;
+		}
+
+		synchronized BidPoint getBuiltNash() throws Exception
+		{
+			if (isFrontierDomain())
+				return (paretoFrontier != null) ? paretoFrontier.getNash() : null;
+			return nash;
+		}
+
+		synchronized BidPoint getBuiltKalaiSmorodinsky() throws Exception
+		{
+			if (isFrontierDomain())
+				return (paretoFrontier != null) ? paretoFrontier.getKalaiSmorodinsky() : null;
+			// The bid space keeps the Pareto frontier its Nash point came from
+			if (kalaiSmorodinsky == null && bidSpace != null)
+				kalaiSmorodinsky = bidSpace.getKalaiSmorodinsky();
+			return kalaiSmorodinsky;
+		}
+
+		private boolean isFrontierDomain()
+		{
+			return codec != null && codec.size() >= MIN_FRONTIER_DOMAINSIZE;
+		}
+
+		synchronized ParetoFrontier getParetoFrontier() throws Exception
+		{
+			if (codec == null)
+				throw new IllegalStateException("No Pareto frontier without a bid codec");
+			if (paretoFrontier == null)
+				paretoFrontier = ParetoFrontier.build(utilitySpace, compiledUtilitySpace, codec, opponentModel, getOpponentScorer());
+			return paretoFrontier;
+		}
+
+		synchronized boolean isParetoFrontierBuilt()
+		{
+			return paretoFrontier != null;
+		}
+
+		synchronized ApproximateParetoFrontier getApproximateParetoFrontier(double epsilon) throws Exception
+		{
+			if (codec == null)
+				throw new IllegalStateException("No Pareto frontier without a bid codec");
+			if (approximateParetoFrontier == null || approximateParetoFrontier.getEpsilon() != epsilon)
+				approximateParetoFrontier = ApproximateParetoFrontier.build(utilitySpace, compiledUtilitySpace, codec, opponentModel, getOpponentScorer(), epsilon);
+			return approximateParetoFrontier;
+		}
+
+		synchronized BatchUtilityScorer getOpponentScorer()
+		{
+			if (codec == null)
+				return null;
+			// A separable model keeps its own table, rebuilt on its updates
+			if (opponentModel instanceof SeparableOpponentModel && ((SeparableOpponentModel) opponentModel).codec == codec)
+				return BatchUtilityScorer.forOpponentModel((SeparableOpponentModel) opponentModel);
+			if (!compiled)
+			{
+				CompiledOpponentModel compiledModel = CompiledOpponentModel.compile(opponentModel, codec);
+				opponentScorer = (compiledModel != null) ? BatchUtilityScorer.forOpponentModel(compiledModel) : null;
+				compiled = true;
+			}
+			return opponentScorer;
+		}
+
+		synchronized boolean hasOpponentScorer()
+		{
+			return opponentScorer != null;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package examplepackage;
+
+import java.util.Arrays;
+
+/**
+ * Secondary index on a {@link BidHistory}, ordering the positions of its bids
+ * by utility (and by position for equal utilities). New bids are buffered and
+ * merged in on the next query, so building an index over a whole domain costs
+ * one sort instead of one insertion per bid. {@link DomainUtilityIndex} uses
+ * it with bid codes as positions.
+ *
+ * @author M. Shayganfar
+ */
+class BidUtilityIndex
+{
+	private double[] utilities = new double[0];
+	private int[] positions = new int[0];
+	private int size = 0;
+
+	private double[] pendingUtilities = new double[16];
+	private int[] pendingPositions = new int[16];
+	private int pendingSize = 0;
+
+	/**
+	 * Positions must be added in increasing order.
+	 */
+	public void add(int position, double utility)
+	{
+		if (pendingSize == pendingUtilities.length)
+		{
+			pendingUtilities = Arrays.copyOf(pendingUtilities, 2 * pendingSize);
+			pendingPositions = Arrays.copyOf(pendingPositions, 2 * pendingSize);
+		}
+		pendingUtilities[pendingSize] = utility;
+		pendingPositions[pendingSize] = position;
+		pendingSize++;
+	}
+
+	public int size()
+	{
+		return size + pendingSize;
+	}
+
+	/**
+	 * Position of the bid with utility closest to u. Of several bids at the
+	 * same distance, the one with the highest position is returned, which is
+	 * what a scan in history order with a non-strict comparison gives.
+	 * Returns -1 if the index is empty.
+	 */
+	public int getPositionOfUtility(double u)
+	{
+		merge();
+		if (size == 0)
+			return -1;
+
+		int above = upperBound(u);
+		double minDistance = Double.POSITIVE_INFINITY;
+		if (above > 0)
+			minDistance = Math.abs(utilities[above - 1] - u);
+		if (above < size)
+			minDistance = Math.min(minDistance, Math.abs(utilities[above] - u));
+
+		int best = -1;
+
+		// The highest position of a run of equal utilities is at its end
+		for (int end = above - 1; end >= 0 && Math.abs(utilities[end] - u) == minDistance; end = lowerBound(utilities[end]) - 1)
+			best = Math.max(best, positions[end]);
+
+		for (int start = above; start < size && Math.abs(utilities[start] - u) == minDistance; start = upperBound(utilities[start]))
+			best = Math.max(best, positions[upperBound(utilities[start]) - 1]);
+
+		return best;
+	}
+
+	/**
+	 * Positions, in increasing order, of the bids with minU < utility <= maxU.
+	 */
+	public int[] getPositionsBetween(double minU, double maxU)
+	{
+		merge();
+		int from = upperBound(minU);
+		int to = Math.max(from, upperBound(maxU));
+		return sortedPositions(from, to);
+	}
+
+	/**
+	 * Positions, in increasing order, of the bids with lower <= utility <=
+	 * upper.
+	 */
+	public int[] getPositionsWithin(double lower, double upper)
+	{
+		merge();
+		int from = lowerBound(lower);
+		int to = Math.max(from, upperBound(upper));
+		return sortedPositions(from, to);
+	}
+
+	/**
+	 * The lowest positions, at most limit (> 0) of them and in increasing
+	 * order, of the bids with lower <= utility <= upper.
+	 */
+	public int[] getFirstPositionsWithin(double lower, double upper, int limit)
+	{
+		merge();
+		int from = lowerBound(lower);
+		int to = Math.max(from, upperBound(upper));
+		if (to - from <= limit)
+			return sortedPositions(from, to);
+
+		// Keep the lowest positions in a small sorted buffer
+		int[] first = new int[limit];
+		int n = 0;
+		for (int i = from; i < to; i++)
+		{
+			int position = positions[i];
+			if (n == limit && position >= first[n - 1])
+				continue;
+			int j = (n == limit) ? n - 1 : n++;
+			while (j > 0 && first[j - 1] > position)
+			{
+				first[j] = first[j - 1];
+				j--;
+			}
+			first[j] = position;
+		}
+		return first;
+	}
+
+	/**
+	 * Positions, in increasing order, of every bid with a utility at least as
+	 * high as the n-th best one. These are the only candidates for the best n
+	 * bids, whatever the tie-breaking.
+	 */
+	public int[] getPositionsOfBest(int n)
+	{
+		merge();
+		if (n >= size)
+			return sortedPositions(0, size);
+		int from = lowerBound(utilities[size - n]);
+		return sortedPositions(from, size);
+	}
+
+	private int[] sortedPositions(int from, int to)
+	{
+		int[] result = Arrays.copyOfRange(positions, from, to);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * First index with a utility > u.
+	 */
+	private int upperBound(double u)
+	{
+		int low = 0;
+		int high = size;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (utilities[mid] <= u)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * First index with a utility >= u.
+	 */
+	private int lowerBound(double u)
+	{
+		int low = 0;
+		int high = size;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (utilities[mid] < u)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Sorts the pending bids and merges them into the index.
+	 */
+	private void merge()
+	{
+		if (pendingSize == 0)
+			return;
+
+		// Pending positions are increasing, so a stable sort on utility also
+		// orders equal utilities by position.
+		double[] tmpUtilities = new double[pendingSize];
+		int[] tmpPositions = new int[pendingSize];
+		mergeSort(pendingUtilities, pendingPositions, tmpUtilities, tmpPositions, 0, pendingSize);
+
+		double[] mergedUtilities = new double[size + pendingSize];
+		int[] mergedPositions = new int[size + pendingSize];
+		int i = 0, j = 0, k = 0;
+		while (i < size || j < pendingSize)
+		{
+			// Indexed bids come first on equal utility: they have lower positions
+			if (j == pendingSize || (i < size && utilities[i] <= pendingUtilities[j]))
+			{
+				mergedUtilities[k] = utilities[i];
+				mergedPositions[k++] = positions[i++];
+			}
+			else
+			{
+				mergedUtilities[k] = pendingUtilities[j];
+				mergedPositions[k++] = pendingPositions[j++];
+			}
+		}
+
+		utilities = mergedUtilities;
+		positions = mergedPositions;
+		size = k;
+		pendingSize = 0;
+	}
+
+	private static void mergeSort(double[] u, int[] p, double[] tmpU, int[] tmpP, int from, int to)
+	{
+		if (to - from < 2)
+			return;
+		int mid = (from + to) >>> 1;
+		mergeSort(u, p, tmpU, tmpP, from, mid);
+		mergeSort(u, p, tmpU, tmpP, mid, to);
+		if (u[mid - 1] <= u[mid])
+			return;
+
+		System.arraycopy(u, from, tmpU, from, to - from);
+		System.arraycopy(p, from, tmpP, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid || j < to)
+		{
+			if (j == to || (i < mid && tmpU[i] <= tmpU[j]))
+			{
+				u[k] = tmpU[i];
+				p[k++] = tmpP[i++];
+			}
+			else
+			{
+				u[k] = tmpU[j];
+				p[k++] = tmpP[j++];
+			}
+		}
+	}
+}
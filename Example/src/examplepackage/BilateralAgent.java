@@ -3,12 +3,14 @@ package examplepackage;
 import java.util.ArrayList;
 import java.util.List;
 
-import agents.bayesianopponentmodel.BayesianOpponentModel;
+import agents.bayesianopponentmodel.OpponentModel;
 import negotiator.Agent;
 import negotiator.Bid;
 import negotiator.Domain;
+import negotiator.NegotiationResult;
 import negotiator.actions.Accept;
 import negotiator.actions.Action;
+import negotiator.actions.EndNegotiation;
 import negotiator.actions.Offer;
 import negotiator.bidding.BidDetails;
 
@@ -19,18 +21,43 @@ import negotiator.bidding.BidDetails;
  */
 public abstract class BilateralAgent extends Agent implements BidHistoryKeeper {
 	private static final boolean LOGGING = false;
+	/** Number of bids whose utility is remembered */
+	private static final int UTILITY_CACHE_SIZE = 4096;
 	private Appraisal appraisal;
 	private Action opponentAction;
 	
 	protected Domain domain;
 	protected BidHistory myHistory;
 	protected BidHistory opponentHistory;
-	protected BayesianOpponentModel fOpponentModel;
+	protected OpponentModel fOpponentModel;
 	protected List<Bid> selfBidHistory;
+	/** Null if the domain has continuous issues */
+	protected BidCodec bidCodec;
+	/** Null if there is no codec or the space is not linear additive */
+	protected CompiledUtilitySpace compiledUtilitySpace;
+	/** My undiscounted utilities, shared with the appraisal */
+	protected UtilityCache utilityCache;
+	/** Bid space against the opponent model, shared with the appraisal */
+	protected BidSpaceCache bidSpaceCache;
+	/** Extremes, best bid, reservation value and discount of my space, shared with the appraisal */
+	protected UtilityProfile utilityProfile;
+	/** Costs of the expensive updates and the pace of the negotiation */
+	protected UpdateScheduler updateScheduler;
 
 	public void init() {
 		appraisal = new Appraisal();
+		appraisal.utilitySpace = utilitySpace;
 		domain = utilitySpace.getDomain();
+		bidCodec = BidCodec.canEncode(domain) ? new BidCodec(domain) : null;
+		compiledUtilitySpace = (bidCodec != null) ? CompiledUtilitySpace.compile(utilitySpace, bidCodec) : null;
+		utilityCache = new UtilityCache(utilitySpace, compiledUtilitySpace, bidCodec, UTILITY_CACHE_SIZE);
+		appraisal.compiledUtilitySpace = compiledUtilitySpace;
+		appraisal.utilityCache = utilityCache;
+		bidSpaceCache = new BidSpaceCache(utilitySpace, compiledUtilitySpace, bidCodec);
+		appraisal.bidSpaceCache = bidSpaceCache;
+		utilityProfile = new UtilityProfile(utilitySpace, compiledUtilitySpace);
+		appraisal.utilityProfile = utilityProfile;
+		updateScheduler = new UpdateScheduler();
 		myHistory = new BidHistory();
 		opponentHistory = new BidHistory();
 		selfBidHistory = new ArrayList<Bid>();
@@ -48,7 +75,7 @@ public abstract class BilateralAgent extends Agent implements BidHistoryKeeper {
 		this.opponentAction = opponentAction;
 		
 		if (opponentAction instanceof Offer) {
-			Bid bid = ((Offer) opponentAction).getBid();
+			Bid bid = intern(((Offer) opponentAction).getBid());
 			double time = timeline.getTime();
 			double myUndiscountedUtility = getUndiscountedUtility(bid);
 			BidDetails bidDetails = new BidDetails(bid, myUndiscountedUtility, time);
@@ -60,16 +87,35 @@ public abstract class BilateralAgent extends Agent implements BidHistoryKeeper {
 				e.printStackTrace();
 			}
 		}
+		else if (opponentAction instanceof Accept || opponentAction instanceof EndNegotiation)
+			negotiationEnded();
+	}
+
+	@Override
+	public void endSession(NegotiationResult result) {
+		negotiationEnded();
+	}
+
+	/**
+	 * Called when either party accepts or ends the negotiation, and when the
+	 * session ends; may be called more than once. Override this method to
+	 * release what the agent holds for the session.
+	 */
+	protected void negotiationEnded() {
+	}
+
+	/**
+	 * Returns the shared instance of an equal bid, so repeated bids do not
+	 * have to be compared value by value.
+	 */
+	protected Bid intern(Bid bid) {
+		if (bidCodec == null)
+			return bid;
+		return bidCodec.intern(bid);
 	}
 
 	protected double getUndiscountedUtility(Bid bid) {
-		double myUndiscountedUtility = 0;
-		try {
-			myUndiscountedUtility = utilitySpace.getUtility(bid);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-		return myUndiscountedUtility;
+		return utilityCache.getUtility(bid);
 	}
 
 	/**
@@ -111,6 +157,8 @@ public abstract class BilateralAgent extends Agent implements BidHistoryKeeper {
 			}
 		}
 		remember(myAction);
+		if (myAction instanceof Accept)
+			negotiationEnded();
 		return myAction;
 	}
 
@@ -129,7 +177,7 @@ public abstract class BilateralAgent extends Agent implements BidHistoryKeeper {
 	 */
 	private void remember(Action myAction) {
 		if (myAction instanceof Offer) {
-			Bid myLastBid = ((Offer) myAction).getBid();
+			Bid myLastBid = intern(((Offer) myAction).getBid());
 			double time = timeline.getTime();
 			double myUndiscountedUtility = getUndiscountedUtility(myLastBid);
 			BidDetails bidDetails = new BidDetails(myLastBid, myUndiscountedUtility, time);
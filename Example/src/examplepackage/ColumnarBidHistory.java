@@ -0,0 +1,204 @@
+package examplepackage;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+import negotiator.Bid;
+import negotiator.BidIterator;
+import negotiator.bidding.BidDetails;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * A {@link BidHistory} that stores its bids column-wise: utilities and times
+ * in primitive arrays and the bids as compact ids. {@link BidDetails} are
+ * only created when asked for, so scans over utility or time touch nothing but
+ * the arrays.
+ *
+ * With a {@link BidCodec} the id of a bid is its code, and the bid handed out
+ * is the interned one of that code (see {@link BidCodec#getBid(long)}), so
+ * the same bid comes back as the same instance. Other bids are kept once in
+ * a table, equal bids sharing an id.
+ *
+ * @author M. Shayganfar
+ */
+public class ColumnarBidHistory extends BidHistory
+{
+	private final Columns columns;
+
+	public ColumnarBidHistory()
+	{
+		this((BidCodec) null);
+	}
+
+	/**
+	 * Stores the bids of the codec's domain by their code.
+	 */
+	public ColumnarBidHistory(BidCodec codec)
+	{
+		super(new Columns(codec));
+		this.columns = (Columns) history;
+	}
+
+	/**
+	 * Pretends all bids in the domain were made on t = 0, like
+	 * {@link BidHistory#BidHistory(UtilitySpace)}.
+	 */
+	public ColumnarBidHistory(UtilitySpace u)
+	{
+		this(BidCodec.canEncode(u.getDomain()) ? new BidCodec(u.getDomain()) : null);
+		BidCodec codec = columns.codec;
+		if (codec != null)
+		{
+			// Evaluate on all cores; the bids themselves are only their codes
+			CompiledUtilitySpace compiled = CompiledUtilitySpace.compile(u, codec);
+			double[] utilities;
+			if (compiled != null)
+				utilities = GrayCodeWalk.getUtilities(compiled);
+			else
+				utilities = ParallelDomainScan.getUtilities(u, codec, null);
+			for (int code = 0; code < utilities.length; code++)
+			{
+				columns.append(code, Double.isNaN(utilities[code]) ? 0 : utilities[code], 0);
+				indexLast();
+			}
+			enableUtilityIndex();
+			return;
+		}
+
+		BidIterator myBidIterator = new BidIterator(u.getDomain());
+		while (myBidIterator.hasNext())
+		{
+			Bid b = myBidIterator.next();
+			double utility = 0;
+			try
+			{
+				utility = u.getUtility(b);
+			} catch (Exception e)
+			{
+				e.printStackTrace();
+			}
+			columns.append(columns.tableId(b), utility, 0);
+			indexLast();
+		}
+		enableUtilityIndex();
+	}
+
+	@Override
+	protected double utilityAt(int position)
+	{
+		return columns.utilities[position];
+	}
+
+	@Override
+	protected double timeAt(int position)
+	{
+		return columns.times[position];
+	}
+
+	/**
+	 * The column store, seen as a list of {@link BidDetails} that are created
+	 * lazily.
+	 */
+	private static class Columns extends AbstractList<BidDetails> implements RandomAccess
+	{
+		private double[] utilities = new double[16];
+		private double[] times = new double[16];
+		/** Code if >= 0, otherwise -(index in bidTable + 1) */
+		private long[] bidIds = new long[16];
+		private int size = 0;
+
+		private final BidCodec codec;
+		private final List<Bid> bidTable = new ArrayList<Bid>();
+		private final HashMap<Bid, Integer> bidTableIds = new HashMap<Bid, Integer>();
+
+		Columns(BidCodec codec)
+		{
+			this.codec = codec;
+		}
+
+		void append(long bidId, double utility, double time)
+		{
+			if (size == utilities.length)
+			{
+				int capacity = 2 * size;
+				utilities = Arrays.copyOf(utilities, capacity);
+				times = Arrays.copyOf(times, capacity);
+				bidIds = Arrays.copyOf(bidIds, capacity);
+			}
+			utilities[size] = utility;
+			times[size] = time;
+			bidIds[size] = bidId;
+			size++;
+			modCount++;
+		}
+
+		/**
+		 * The code of a bid if it has one, otherwise its id in the table.
+		 */
+		long bidId(Bid b)
+		{
+			if (codec != null)
+			{
+				long code = codec.encode(b);
+				if (code >= 0)
+					return code;
+			}
+			return tableId(b);
+		}
+
+		long tableId(Bid b)
+		{
+			Integer id = bidTableIds.get(b);
+			if (id == null)
+			{
+				id = bidTable.size();
+				bidTable.add(b);
+				bidTableIds.put(b, id);
+			}
+			return -(id + 1L);
+		}
+
+		private Bid getBid(int position)
+		{
+			long id = bidIds[position];
+			if (id < 0)
+				return bidTable.get((int) (-id - 1));
+			return codec.getBid(id);
+		}
+
+		@Override
+		public BidDetails get(int index)
+		{
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			return new BidDetails(getBid(index), utilities[index], times[index]);
+		}
+
+		@Override
+		public BidDetails set(int index, BidDetails b)
+		{
+			BidDetails previous = get(index);
+			utilities[index] = b.getMyUndiscountedUtil();
+			times[index] = b.getTime();
+			bidIds[index] = bidId(b.getBid());
+			return previous;
+		}
+
+		@Override
+		public boolean add(BidDetails b)
+		{
+			append(bidId(b.getBid()), b.getMyUndiscountedUtil(), b.getTime());
+			return true;
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+	}
+}
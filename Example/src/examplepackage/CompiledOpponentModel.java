@@ -0,0 +1,139 @@
+package examplepackage;
+
+import java.util.Random;
+
+import agents.bayesianopponentmodel.OpponentModel;
+
+/**
+ * The current beliefs of an opponent model whose expected utility is linear
+ * additive, such as Genius' BayesianOpponentModel (an expectation over
+ * weighted sums), flattened into a table of normalised contributions like
+ * that of a {@link SeparableOpponentModel}. The minimum and maximum used for
+ * the normalisation are those of these beliefs, summed from the minimum and
+ * maximum contribution of every issue; they are not found by walking the
+ * domain, and not kept from an earlier update.
+ *
+ * A table holds for one update of the model only, see
+ * {@link BidSpaceCache#getOpponentScorer(OpponentModel)}.
+ *
+ * @author M. Shayganfar
+ */
+public class CompiledOpponentModel
+{
+	/** Number of bids on which the table is checked against the model */
+	private static final int CHECKED_BIDS = 32;
+	private static final double TOLERANCE = 1e-9;
+
+	private final BidCodec codec;
+	private final double[][] contributions;
+
+	private CompiledOpponentModel(BidCodec codec, double[][] contributions)
+	{
+		this.codec = codec;
+		this.contributions = contributions;
+	}
+
+	/**
+	 * Compiles the current beliefs of the model, or returns null if its
+	 * expected utility is not linear additive over the codec's domain or the
+	 * same for all bids.
+	 */
+	public static CompiledOpponentModel compile(OpponentModel opponentModel, BidCodec codec)
+	{
+		int n = codec.getNumberOfIssues();
+		double[][] contributions = new double[n][];
+		try
+		{
+			// Vary one issue at a time from the first bid of the domain
+			double base = opponentModel.getExpectedUtility(codec.decode(0));
+			double range = 0;
+			for (int i = 0; i < n; i++)
+			{
+				contributions[i] = new double[codec.getNumberOfValues(i)];
+				for (int v = 1; v < contributions[i].length; v++)
+					contributions[i][v] = opponentModel.getExpectedUtility(codec.decode(v * codec.getStride(i))) - base;
+				range += getMax(contributions[i]) - getMin(contributions[i]);
+			}
+
+			Random random = new Random(0);
+			for (int k = 0; k < CHECKED_BIDS; k++)
+			{
+				long code = (long) (random.nextDouble() * codec.size());
+				double expected = opponentModel.getExpectedUtility(codec.decode(code));
+				if (Math.abs(base + getSum(codec, contributions, code) - expected) > TOLERANCE)
+					return null;
+			}
+			if (!(range > 0))
+				return null;
+
+			// Every issue's worst value adds 0, so the worst bid has 0 and the best 1
+			for (int i = 0; i < n; i++)
+			{
+				double min = getMin(contributions[i]);
+				for (int v = 0; v < contributions[i].length; v++)
+					contributions[i][v] = (contributions[i][v] - min) / range;
+			}
+			return new CompiledOpponentModel(codec, contributions);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * The number of expected utilities {@link #compile} asks the model for.
+	 */
+	public static long getCompileCost(BidCodec codec)
+	{
+		long cost = 1 + CHECKED_BIDS;
+		for (int i = 0; i < codec.getNumberOfIssues(); i++)
+			cost += codec.getNumberOfValues(i) - 1;
+		return cost;
+	}
+
+	public BidCodec getCodec()
+	{
+		return codec;
+	}
+
+	/**
+	 * The normalised contributions, indexed like the codec.
+	 */
+	double[][] getTable()
+	{
+		return contributions;
+	}
+
+	/**
+	 * Normalised utility of the bid with the given code.
+	 */
+	public double getNormalizedUtility(long code)
+	{
+		return getSum(codec, contributions, code);
+	}
+
+	private static double getSum(BidCodec codec, double[][] contributions, long code)
+	{
+		double sum = 0;
+		for (int i = 0; i < contributions.length; i++)
+			sum += contributions[i][codec.getValueIndex(code, i)];
+		return sum;
+	}
+
+	private static double getMin(double[] values)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for (double value : values)
+			min = Math.min(min, value);
+		return min;
+	}
+
+	private static double getMax(double[] values)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		for (double value : values)
+			max = Math.max(max, value);
+		return max;
+	}
+}
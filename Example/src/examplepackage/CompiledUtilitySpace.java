@@ -0,0 +1,151 @@
+package examplepackage;
+
+import java.util.Random;
+
+import negotiator.Bid;
+import negotiator.issue.Issue;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * A linear additive {@link UtilitySpace} flattened into a table holding, for
+ * every issue and value index, the weighted evaluation that value contributes
+ * to the utility. The utility of a bid is the sum of its contributions, taken
+ * in issue order like {@link UtilitySpace#getUtility(Bid)} does.
+ *
+ * @author M. Shayganfar
+ */
+public class CompiledUtilitySpace
+{
+	/** Number of bids on which the table is checked against the space */
+	private static final int CHECKED_BIDS = 32;
+	private static final double TOLERANCE = 1e-9;
+
+	private final UtilitySpace utilitySpace;
+	private final BidCodec codec;
+	private final double[][] contributions;
+
+	private CompiledUtilitySpace(UtilitySpace utilitySpace, BidCodec codec, double[][] contributions)
+	{
+		this.utilitySpace = utilitySpace;
+		this.codec = codec;
+		this.contributions = contributions;
+	}
+
+	/**
+	 * Compiles the space, or returns null if it is not linear additive over
+	 * the codec's domain.
+	 */
+	public static CompiledUtilitySpace compile(UtilitySpace utilitySpace, BidCodec codec)
+	{
+		int n = codec.getNumberOfIssues();
+		double[][] contributions = new double[n][];
+		try
+		{
+			// Vary one issue at a time from the first bid of the domain
+			for (int i = 0; i < n; i++)
+			{
+				Issue issue = codec.getIssue(i);
+				double weight = utilitySpace.getWeight(issue.getNumber());
+				contributions[i] = new double[codec.getNumberOfValues(i)];
+				for (int v = 0; v < contributions[i].length; v++)
+				{
+					Bid bid = codec.decode(v * codec.getStride(i));
+					contributions[i][v] = weight * utilitySpace.getEvaluation(issue.getNumber(), bid);
+				}
+			}
+
+			CompiledUtilitySpace compiled = new CompiledUtilitySpace(utilitySpace, codec, contributions);
+			Random random = new Random(0);
+			for (int k = 0; k < CHECKED_BIDS; k++)
+			{
+				long code = (long) (random.nextDouble() * codec.size());
+				double expected = utilitySpace.getUtility(codec.decode(code));
+				if (Math.abs(compiled.getUtility(code) - expected) > TOLERANCE)
+					return null;
+			}
+			return compiled;
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public UtilitySpace getUtilitySpace()
+	{
+		return utilitySpace;
+	}
+
+	public BidCodec getCodec()
+	{
+		return codec;
+	}
+
+	/**
+	 * Weighted evaluation of a value of an issue, both given by index.
+	 */
+	public double getContribution(int issueIndex, int valueIndex)
+	{
+		return contributions[issueIndex][valueIndex];
+	}
+
+	public double getMinContribution(int issueIndex)
+	{
+		double min = Double.POSITIVE_INFINITY;
+		for (double c : contributions[issueIndex])
+			min = Math.min(min, c);
+		return min;
+	}
+
+	public double getMaxContribution(int issueIndex)
+	{
+		double max = Double.NEGATIVE_INFINITY;
+		for (double c : contributions[issueIndex])
+			max = Math.max(max, c);
+		return max;
+	}
+
+	/**
+	 * Utility of a bid, from the table. Bids outside the domain are left to
+	 * the space; if it can not evaluate them either, their utility is 0.
+	 */
+	public double getUtility(Bid bid)
+	{
+		double utility = 0;
+		for (int i = 0; i < contributions.length; i++)
+		{
+			int valueIndex = codec.getValueIndex(bid, i);
+			if (valueIndex < 0)
+				return getUtilityFromSpace(bid);
+			utility += contributions[i][valueIndex];
+		}
+		return utility;
+	}
+
+	private double getUtilityFromSpace(Bid bid)
+	{
+		try
+		{
+			return utilitySpace.getUtility(bid);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Utility of the bid with the given code.
+	 */
+	public double getUtility(long code)
+	{
+		double utility = 0;
+		for (int i = 0; i < contributions.length; i++)
+		{
+			double[] c = contributions[i];
+			utility += c[(int) (code % c.length)];
+			code /= c.length;
+		}
+		return utility;
+	}
+}
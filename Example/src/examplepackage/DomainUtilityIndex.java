@@ -0,0 +1,77 @@
+package examplepackage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * All bids of a domain sorted by my utility, built once per session so that a
+ * utility band can be looked up with two binary searches instead of a walk
+ * over the domain. Bids are kept as {@link BidCodec} codes, which limits the
+ * index to domains of less than 2^31 bids; in practice it is only worth
+ * building for much smaller ones.
+ *
+ * @author M. Shayganfar
+ */
+public class DomainUtilityIndex
+{
+	private final BidCodec codec;
+	private final BidUtilityIndex index;
+
+	private DomainUtilityIndex(BidCodec codec, BidUtilityIndex index)
+	{
+		this.codec = codec;
+		this.index = index;
+	}
+
+	/**
+	 * Evaluates every bid of the codec's domain, on all cores. Bids whose
+	 * utility can not be computed are left out, as the domain scans did.
+	 */
+	public static DomainUtilityIndex build(UtilitySpace utilitySpace, BidCodec codec)
+	{
+		if (codec.size() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Domain too big to index: " + codec.size() + " bids");
+
+		BidUtilityIndex index = new BidUtilityIndex();
+		double[] utilities = ParallelDomainScan.getUtilities(utilitySpace, codec, null);
+		for (int code = 0; code < utilities.length; code++)
+			if (!Double.isNaN(utilities[code]))
+				index.add(code, utilities[code]);
+		return new DomainUtilityIndex(codec, index);
+	}
+
+	/**
+	 * Indexes a linear additive space, evaluating the domain with a
+	 * {@link GrayCodeWalk}.
+	 */
+	public static DomainUtilityIndex build(CompiledUtilitySpace compiled)
+	{
+		BidUtilityIndex index = new BidUtilityIndex();
+		double[] utilities = GrayCodeWalk.getUtilities(compiled);
+		for (int code = 0; code < utilities.length; code++)
+			index.add(code, utilities[code]);
+		return new DomainUtilityIndex(compiled.getCodec(), index);
+	}
+
+	/**
+	 * Gets the bids with lower <= utility <= upper in domain order, like a
+	 * walk with a {@link negotiator.BidIterator} would find them. With a
+	 * limit > 0, only the first limit of those are returned.
+	 */
+	public List<Bid> getBidsOfUtility(double lowerBound, double upperBound, int limit)
+	{
+		int[] codes;
+		if (limit > 0)
+			codes = index.getFirstPositionsWithin(lowerBound, upperBound, limit);
+		else
+			codes = index.getPositionsWithin(lowerBound, upperBound);
+
+		List<Bid> bids = new ArrayList<Bid>(codes.length);
+		for (int code : codes)
+			bids.add(codec.getBid(code));
+		return bids;
+	}
+}
@@ -0,0 +1,146 @@
+package examplepackage;
+
+import negotiator.Bid;
+
+/**
+ * A frequency opponent model: the values the opponent offers most are the
+ * ones it likes best, and the issues whose value it keeps are the ones that
+ * matter most to it. Counts and weights are kept in arrays indexed like the
+ * {@link BidCodec}, so an update takes time linear in the number of issues,
+ * whatever the size of the domain. Utilities come from a table of weighted,
+ * normalised evaluations, see {@link SeparableOpponentModel}.
+ *
+ * The evaluation of a value is (count + 1) / (highest count of the issue +
+ * 1). The weight of an issue grows by LEARNING_RATE whenever the opponent
+ * offers the same value as in its previous bid, after which the weights are
+ * normalised. Before the first bid every bid has utility 1.
+ *
+ * @author M. Shayganfar
+ */
+public class FrequencyOpponentModel extends SeparableOpponentModel
+{
+	private static final double LEARNING_RATE = 0.2;
+
+	private final int[][] counts;
+	private final int[] maxCounts;
+	private final double[] weights;
+	/** Value indices of the previous bid, or null before the first */
+	private int[] previousValues;
+	private int numberOfBids = 0;
+
+	public FrequencyOpponentModel(BidCodec codec)
+	{
+		super(codec);
+		int n = codec.getNumberOfIssues();
+		counts = new int[n][];
+		for (int i = 0; i < n; i++)
+			counts[i] = new int[codec.getNumberOfValues(i)];
+		maxCounts = new int[n];
+		weights = new double[n];
+		for (int i = 0; i < n; i++)
+			weights[i] = 1.0 / n;
+	}
+
+	@Override
+	public void updateBeliefs(Bid bid) throws Exception
+	{
+		int n = codec.getNumberOfIssues();
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			values[i] = codec.getValueIndex(bid, i);
+			if (values[i] < 0)
+				throw new IllegalArgumentException("Not a bid of the domain: " + bid);
+		}
+
+		double totalWeight = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int count = ++counts[i][values[i]];
+			if (count > maxCounts[i])
+				maxCounts[i] = count;
+			if (previousValues != null && previousValues[i] == values[i])
+				weights[i] += LEARNING_RATE;
+			totalWeight += weights[i];
+		}
+		for (int i = 0; i < n; i++)
+			weights[i] /= totalWeight;
+
+		previousValues = values;
+		numberOfBids++;
+		beliefsChanged();
+	}
+
+	public int getNumberOfBids()
+	{
+		return numberOfBids;
+	}
+
+	/**
+	 * The learnt weight of an issue, by its index in
+	 * {@link BidCodec#getIssue(int)}; unlike OpponentModel's
+	 * getExpectedWeight, which takes an issue number.
+	 */
+	public double getExpectedWeightByIndex(int issueIndex)
+	{
+		return weights[issueIndex];
+	}
+
+	/**
+	 * The opponent's utility of a bid, before normalisation; 0 for bids
+	 * outside the domain.
+	 */
+	public double getExpectedUtility(Bid bid)
+	{
+		double utility = 0;
+		for (int i = 0; i < weights.length; i++)
+		{
+			int value = codec.getValueIndex(bid, i);
+			if (value >= 0)
+				utility += weights[i] * getEvaluation(i, value);
+		}
+		return utility;
+	}
+
+	private double getEvaluation(int issueIndex, int valueIndex)
+	{
+		return (counts[issueIndex][valueIndex] + 1.0) / (maxCounts[issueIndex] + 1.0);
+	}
+
+	/**
+	 * Every issue has a value with evaluation 1, so the best bid has the
+	 * sum of the weights; the worst takes the lowest evaluation of every
+	 * issue.
+	 */
+	@Override
+	protected double[][] buildTable()
+	{
+		int n = weights.length;
+		double[] minEvaluations = new double[n];
+		double max = 0;
+		double min = 0;
+		for (int i = 0; i < n; i++)
+		{
+			minEvaluations[i] = 1;
+			for (int v = 0; v < counts[i].length; v++)
+				minEvaluations[i] = Math.min(minEvaluations[i], getEvaluation(i, v));
+			max += weights[i];
+			min += weights[i] * minEvaluations[i];
+		}
+
+		double[][] contributions = new double[n][];
+		for (int i = 0; i < n; i++)
+		{
+			contributions[i] = new double[counts[i].length];
+			for (int v = 0; v < counts[i].length; v++)
+			{
+				if (max > min)
+					contributions[i][v] = weights[i] * (getEvaluation(i, v) - minEvaluations[i]) / (max - min);
+				else
+					// Nothing learnt yet: every value is as good as the best
+					contributions[i][v] = weights[i] / max;
+			}
+		}
+		return contributions;
+	}
+}
@@ -0,0 +1,150 @@
+package examplepackage;
+
+import java.util.List;
+
+/**
+ * Walks the bids of a {@link CompiledUtilitySpace} in reflected mixed-radix
+ * Gray code order, in which consecutive bids differ in the value of a single
+ * issue, by one value index. The utility of the next bid is then updated
+ * rather than recomputed.
+ *
+ * The last issue changes fastest. The walk keeps the running sums of the
+ * contributions in issue order, so a change to issue i only redoes the sums
+ * of issues i and up: one addition for most bids, and on average less than
+ * two. The utility comes out bit for bit the same as
+ * {@link CompiledUtilitySpace#getUtility(long)}.
+ *
+ * Bids are visited by rank, which is not the order of their codes; callers
+ * that need domain order store the results by code.
+ *
+ * @author M. Shayganfar
+ */
+public class GrayCodeWalk
+{
+	/**
+	 * Gets every bid of a walk with its code and utility.
+	 */
+	public interface Visitor
+	{
+		void visit(long code, double utility);
+	}
+
+	/**
+	 * Visits the bids of rank from up to (but not including) to.
+	 */
+	public static void walk(CompiledUtilitySpace compiled, long from, long to, Visitor visitor)
+	{
+		if (from >= to)
+			return;
+
+		BidCodec codec = compiled.getCodec();
+		int n = codec.getNumberOfIssues();
+
+		// Digit k of the rank is issue n - 1 - k
+		int[] radix = new int[n];
+		int[] digit = new int[n];
+		boolean[] up = new boolean[n];
+		int[] value = new int[n];
+		long code = 0;
+		long rest = from;
+		for (int k = 0; k < n; k++)
+		{
+			int issue = n - 1 - k;
+			radix[k] = codec.getNumberOfValues(issue);
+			digit[k] = (int) (rest % radix[k]);
+			rest /= radix[k];
+			// The digit runs up while the digits above it form an even number
+			up[k] = (rest & 1) == 0;
+			value[issue] = up[k] ? digit[k] : radix[k] - 1 - digit[k];
+			code += value[issue] * codec.getStride(issue);
+		}
+
+		// sums[i] is the utility of issues 0..i, added up in that order
+		double[] sums = new double[n];
+		updateSums(compiled, value, sums, 0);
+
+		for (long rank = from; ; )
+		{
+			visitor.visit(code, n == 0 ? 0 : sums[n - 1]);
+			if (++rank == to)
+				return;
+
+			int k = 0;
+			while (digit[k] == radix[k] - 1)
+			{
+				digit[k] = 0;
+				up[k] = !up[k];
+				k++;
+			}
+			digit[k]++;
+
+			int issue = n - 1 - k;
+			int step = up[k] ? 1 : -1;
+			value[issue] += step;
+			code += step * codec.getStride(issue);
+			updateSums(compiled, value, sums, issue);
+		}
+	}
+
+	private static void updateSums(CompiledUtilitySpace compiled, int[] value, double[] sums, int from)
+	{
+		double sum = (from == 0) ? 0 : sums[from - 1];
+		for (int i = from; i < sums.length; i++)
+		{
+			sum += compiled.getContribution(i, value[i]);
+			sums[i] = sum;
+		}
+	}
+
+	/**
+	 * Utility of every bid of the domain, indexed by code, computed on all
+	 * cores.
+	 */
+	public static double[] getUtilities(final CompiledUtilitySpace compiled)
+	{
+		long size = compiled.getCodec().size();
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Domain too big to scan into an array: " + size + " bids");
+
+		final double[] utilities = new double[(int) size];
+		// Every partition walks its own ranks and writes its own codes
+		ParallelDomainScan.scan(size, new ParallelDomainScan.Scanner<Void>() {
+			public Void scan(int partition, long from, long to) {
+				walk(compiled, from, to, new Visitor() {
+					public void visit(long code, double utility) {
+						utilities[(int) code] = utility;
+					}
+				});
+				return null;
+			}
+		});
+		return utilities;
+	}
+
+	/**
+	 * Lowest and highest utility in the domain, computed on all cores.
+	 */
+	public static double[] getMinMaxUtility(final CompiledUtilitySpace compiled)
+	{
+		List<double[]> partitions = ParallelDomainScan.scan(compiled.getCodec().size(), new ParallelDomainScan.Scanner<double[]>() {
+			public double[] scan(int partition, long from, long to) {
+				final double[] minMax = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+				walk(compiled, from, to, new Visitor() {
+					public void visit(long code, double utility) {
+						if (minMax[0] > utility) minMax[0] = utility;
+						if (minMax[1] < utility) minMax[1] = utility;
+					}
+				});
+				return minMax;
+			}
+		});
+
+		double[] minMax = { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (double[] partition : partitions)
+		{
+			if (minMax[0] > partition[0]) minMax[0] = partition[0];
+			if (minMax[1] < partition[1]) minMax[1] = partition[1];
+		}
+		return minMax;
+	}
+}
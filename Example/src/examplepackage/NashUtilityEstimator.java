@@ -0,0 +1,94 @@
+package examplepackage;
+
+import negotiator.analysis.BidPoint;
+import negotiator.utility.UtilitySpace;
+import agents.bayesianopponentmodel.OpponentModel;
+
+/**
+ * Finds my utility of the Nash point against an opponent model, from the
+ * {@link BidSpaceCache}, as long as the {@link UpdateScheduler} says the
+ * domain is small enough to find it in time; else it keeps the last one
+ * found. Used on the agent thread and on that of the
+ * {@link OpponentModelWorker}; it holds no reference to the agent, so a
+ * worker that outlives its session does not keep the agent alive.
+ *
+ * @author M. Shayganfar
+ */
+public class NashUtilityEstimator implements OpponentModelWorker.NashEstimator
+{
+	/**
+	 * Number of bids over which a frontier is built to find out what a build
+	 * costs, when a domain may be too big to build one
+	 */
+	private static final long FRONTIER_SAMPLE_SIZE = 100000;
+
+	private final UtilitySpace utilitySpace;
+	/** May be null */
+	private final CompiledUtilitySpace compiledUtilitySpace;
+	/** May be null, then only domains too small for a frontier are estimated */
+	private final BidCodec codec;
+	private final BidSpaceCache bidSpaceCache;
+	private final UpdateScheduler updateScheduler;
+	private final long domainSize;
+
+	/** My utility of the last Nash point found */
+	private volatile double lastNashUtility;
+
+	public NashUtilityEstimator(UtilitySpace utilitySpace, CompiledUtilitySpace compiledUtilitySpace, BidCodec codec,
+			BidSpaceCache bidSpaceCache, UpdateScheduler updateScheduler, long domainSize, double defaultNashUtility)
+	{
+		this.utilitySpace = utilitySpace;
+		this.compiledUtilitySpace = compiledUtilitySpace;
+		this.codec = codec;
+		this.bidSpaceCache = bidSpaceCache;
+		this.updateScheduler = updateScheduler;
+		this.domainSize = domainSize;
+		this.lastNashUtility = defaultNashUtility;
+	}
+
+	/**
+	 * My utility of the Nash point against an opponent model. If the domain
+	 * is too big to find it in time, that of the last one found, or the
+	 * default before the first.
+	 */
+	public double getNashUtility(OpponentModel opponentModel)
+	{
+		try
+		{
+			if (domainSize < BidSpaceCache.MIN_FRONTIER_DOMAINSIZE || canBuildParetoFrontier(opponentModel))
+			{
+				boolean built = bidSpaceCache.isParetoFrontierBuilt(opponentModel);
+				long start = System.nanoTime();
+				BidPoint nash = bidSpaceCache.getNash(opponentModel);
+				if (!built && domainSize >= BidSpaceCache.MIN_FRONTIER_DOMAINSIZE)
+					updateScheduler.frontierBuilt(domainSize, System.nanoTime() - start);
+
+				if (nash != null && nash.getUtilityA() != null)
+					lastNashUtility = nash.getUtilityA();
+			}
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		return lastNashUtility;
+	}
+
+	/**
+	 * Whether the frontier of this encodable domain can be built in the time
+	 * an update may take. Until a build is measured, a frontier over a
+	 * sample of the domain tells what one costs.
+	 */
+	private boolean canBuildParetoFrontier(OpponentModel opponentModel) throws Exception
+	{
+		if (codec == null)
+			return false;
+		if (domainSize > updateScheduler.getMaxFrontierSize() && !updateScheduler.hasFrontierCost())
+		{
+			long start = System.nanoTime();
+			ParetoFrontier.build(utilitySpace, compiledUtilitySpace, codec, opponentModel,
+					bidSpaceCache.getOpponentScorer(opponentModel), FRONTIER_SAMPLE_SIZE);
+			updateScheduler.frontierBuilt(FRONTIER_SAMPLE_SIZE, System.nanoTime() - start);
+		}
+		return domainSize <= updateScheduler.getMaxFrontierSize();
+	}
+}
@@ -0,0 +1,195 @@
+package examplepackage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import negotiator.Bid;
+import agents.bayesianopponentmodel.OpponentModel;
+
+/**
+ * Learns the opponent model on a thread of its own, so that updating it and
+ * finding the Nash point no longer hold up the agent's bids on big domains.
+ *
+ * There are two models. The agent bids with the front model, which the
+ * worker never touches; the worker feeds the opponent's bids into the back
+ * model and then finds its Nash point. It then waits until
+ * {@link #swap()} makes that model the front, and brings the old front up
+ * to date as the new back. The agent thread never waits for an update: the
+ * locks are only held to hand over bids and models.
+ *
+ * @author M. Shayganfar
+ */
+public class OpponentModelWorker
+{
+	/**
+	 * Finds my utility of the Nash point against a model, on the worker
+	 * thread. The worker thread keeps it alive until {@link #stop()}, so it
+	 * should not hold on to the agent, see {@link NashUtilityEstimator}.
+	 */
+	public interface NashEstimator
+	{
+		double getNashUtility(OpponentModel opponentModel);
+	}
+
+	/**
+	 * A model with the number of opponent bids it has learnt and my utility
+	 * of its Nash point. The model is not a copy: it is the front model,
+	 * which the worker leaves alone only until the next {@link #swap()}
+	 * hands it back to be updated. So it must not be used after that swap.
+	 */
+	public static class Snapshot
+	{
+		private final OpponentModel opponentModel;
+		private final int numberOfBids;
+		private final double nashUtility;
+
+		Snapshot(OpponentModel opponentModel, int numberOfBids, double nashUtility)
+		{
+			this.opponentModel = opponentModel;
+			this.numberOfBids = numberOfBids;
+			this.nashUtility = nashUtility;
+		}
+
+		public OpponentModel getOpponentModel()
+		{
+			return opponentModel;
+		}
+
+		public int getNumberOfBids()
+		{
+			return numberOfBids;
+		}
+
+		public double getNashUtility()
+		{
+			return nashUtility;
+		}
+	}
+
+	private final BidSpaceCache bidSpaceCache;
+	private final NashEstimator nashEstimator;
+	private final Thread thread;
+
+	/** Every opponent bid submitted so far */
+	private final List<Bid> bids = new ArrayList<Bid>();
+
+	private OpponentModel front;
+	private OpponentModel back;
+	private int frontBids = 0;
+	private int backBids = 0;
+	/** The back model, once it is learnt and its Nash point found */
+	private Snapshot ready;
+	private boolean stopped = false;
+
+	/**
+	 * Both models must be new. The worker starts right away.
+	 */
+	public OpponentModelWorker(OpponentModel front, OpponentModel back, BidSpaceCache bidSpaceCache, NashEstimator nashEstimator)
+	{
+		this.front = front;
+		this.back = back;
+		this.bidSpaceCache = bidSpaceCache;
+		this.nashEstimator = nashEstimator;
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				work();
+			}
+		}, "opponent-model");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Hands an opponent bid to the worker.
+	 */
+	public synchronized void submit(Bid bid)
+	{
+		if (bid == null || stopped)
+			return;
+		bids.add(bid);
+		notifyAll();
+	}
+
+	/**
+	 * Makes the back model the front if the worker has finished it.
+	 *
+	 * @return the snapshot of the new front model, or null if the front
+	 *         stays
+	 */
+	public synchronized Snapshot swap()
+	{
+		if (ready == null)
+			return null;
+
+		OpponentModel model = front;
+		front = back;
+		back = model;
+		int numberOfBids = frontBids;
+		frontBids = backBids;
+		backBids = numberOfBids;
+
+		Snapshot snapshot = ready;
+		ready = null;
+		// The old front has bids to catch up on
+		notifyAll();
+		return snapshot;
+	}
+
+	/**
+	 * Stops the worker after its current update. The agent must call this
+	 * when its session ends, or the thread waits for bids forever.
+	 */
+	public synchronized void stop()
+	{
+		stopped = true;
+		notifyAll();
+	}
+
+	private void work()
+	{
+		while (true)
+		{
+			OpponentModel model;
+			List<Bid> pending;
+			synchronized (this)
+			{
+				// The back model is not touched again until it is swapped
+				while (!stopped && (ready != null || backBids == bids.size()))
+				{
+					try
+					{
+						wait();
+					} catch (InterruptedException e)
+					{
+						return;
+					}
+				}
+				if (stopped)
+					return;
+				model = back;
+				pending = new ArrayList<Bid>(bids.subList(backBids, bids.size()));
+			}
+
+			// Bids that come in meanwhile are learnt in the next round
+			for (Bid bid : pending)
+			{
+				try
+				{
+					model.updateBeliefs(bid);
+				} catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+			bidSpaceCache.beliefsUpdated(model);
+			double nashUtility = nashEstimator.getNashUtility(model);
+
+			synchronized (this)
+			{
+				backBids += pending.size();
+				ready = new Snapshot(model, backBids, nashUtility);
+			}
+		}
+	}
+}
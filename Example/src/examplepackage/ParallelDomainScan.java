@@ -0,0 +1,226 @@
+package examplepackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import negotiator.Bid;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Splits the codes of a domain (see {@link BidCodec}) into contiguous
+ * partitions and scans them on all cores. Each partition produces its own
+ * result and the results come back in domain order, so merging them gives
+ * the same answer as a single walk over the domain.
+ *
+ * Small domains are scanned on the calling thread as one partition.
+ *
+ * @author M. Shayganfar
+ */
+public class ParallelDomainScan
+{
+	/** Domains smaller than this are not worth the hand-off to other threads */
+	private static final long MIN_PARALLEL_SIZE = 20000;
+	/** Partitions per thread, so that uneven partitions still balance out */
+	private static final int PARTITIONS_PER_THREAD = 4;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static ExecutorService executor;
+
+	/**
+	 * Scans the codes [from, to) of the given partition.
+	 */
+	public interface Scanner<R>
+	{
+		R scan(int partition, long from, long to);
+	}
+
+	/**
+	 * Tells whether the bid with the given code is wanted.
+	 */
+	public interface Filter
+	{
+		boolean accept(long code);
+	}
+
+	/**
+	 * Scans the codes [0, size), returning the partition results in order.
+	 */
+	public static <R> List<R> scan(long size, final Scanner<R> scanner)
+	{
+		return scan(size, getNumberOfPartitions(size), scanner);
+	}
+
+	/**
+	 * Scans [0, size) in the given number of partitions, for work that is
+	 * heavy per item, such as the issues of a domain.
+	 */
+	public static <R> List<R> scan(long size, int partitions, final Scanner<R> scanner)
+	{
+		List<R> results = new ArrayList<R>();
+		if (partitions <= 1)
+		{
+			results.add(scanner.scan(0, 0, size));
+			return results;
+		}
+
+		List<Future<R>> futures = new ArrayList<Future<R>>();
+		for (int p = 0; p < partitions; p++)
+		{
+			final int partition = p;
+			final long from = size / partitions * p + Math.min(p, size % partitions);
+			final long to = from + size / partitions + (p < size % partitions ? 1 : 0);
+			futures.add(getExecutor().submit(new Callable<R>() {
+				public R call() {
+					return scanner.scan(partition, from, to);
+				}
+			}));
+		}
+
+		for (Future<R> future : futures)
+			results.add(get(future));
+		return results;
+	}
+
+	/**
+	 * Utility of every bid of the codec's domain, indexed by code, or NaN
+	 * where it can not be computed. If bids is not null, the decoded bids
+	 * are stored in it as well.
+	 */
+	public static double[] getUtilities(final UtilitySpace utilitySpace, final BidCodec codec, final Bid[] bids)
+	{
+		if (codec.size() > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Domain too big to scan into an array: " + codec.size() + " bids");
+
+		final double[] utilities = new double[(int) codec.size()];
+		// Partitions write disjoint parts of the arrays, Future.get() publishes them
+		scan(utilities.length, new Scanner<Void>() {
+			public Void scan(int partition, long from, long to) {
+				for (int code = (int) from; code < to; code++)
+				{
+					Bid bid = codec.decode(code);
+					if (bids != null)
+						bids[code] = bid;
+					try
+					{
+						utilities[code] = utilitySpace.getUtility(bid);
+					} catch (Exception e)
+					{
+						e.printStackTrace();
+						utilities[code] = Double.NaN;
+					}
+				}
+				return null;
+			}
+		});
+		return utilities;
+	}
+
+	/**
+	 * Codes in [0, size) accepted by the filter, in increasing order. With a
+	 * limit > 0 only the lowest limit of them are returned, and a partition
+	 * gives up as soon as the partitions before it found enough.
+	 */
+	public static long[] findFirst(long size, final int limit, final Filter filter)
+	{
+		final AtomicIntegerArray found = new AtomicIntegerArray(getNumberOfPartitions(size));
+
+		List<long[]> results = scan(size, new Scanner<long[]>() {
+			public long[] scan(int partition, long from, long to) {
+				long[] codes = new long[16];
+				int n = 0;
+				for (long code = from; code < to; code++)
+				{
+					if (limit > 0 && (code & 1023) == 0 && foundBefore(found, partition) >= limit)
+						break;
+					if (!filter.accept(code))
+						continue;
+					if (n == codes.length)
+						codes = Arrays.copyOf(codes, 2 * n);
+					codes[n++] = code;
+					found.set(partition, n);
+					if (limit > 0 && n >= limit)
+						break;
+				}
+				return Arrays.copyOf(codes, n);
+			}
+		});
+
+		long[] codes = new long[0];
+		for (long[] partitionCodes : results)
+		{
+			int n = partitionCodes.length;
+			if (limit > 0)
+				n = Math.min(n, limit - codes.length);
+			int offset = codes.length;
+			codes = Arrays.copyOf(codes, offset + n);
+			System.arraycopy(partitionCodes, 0, codes, offset, n);
+		}
+		return codes;
+	}
+
+	private static int foundBefore(AtomicIntegerArray found, int partition)
+	{
+		int n = 0;
+		for (int p = 0; p < partition; p++)
+			n += found.get(p);
+		return n;
+	}
+
+	/**
+	 * Number of partitions {@link #scan(long, Scanner)} splits a domain of
+	 * the given size into.
+	 */
+	public static int getNumberOfPartitions(long size)
+	{
+		if (size < MIN_PARALLEL_SIZE || THREADS == 1)
+			return 1;
+		return THREADS * PARTITIONS_PER_THREAD;
+	}
+
+	public static int getNumberOfThreads()
+	{
+		return THREADS;
+	}
+
+	static <R> R get(Future<R> future)
+	{
+		try
+		{
+			return future.get();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Shared pool of daemon threads, so an agent that is thrown away does
+	 * not keep the JVM alive.
+	 */
+	static synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "domain-scan");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return executor;
+	}
+}
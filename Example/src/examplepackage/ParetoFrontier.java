@@ -0,0 +1,357 @@
+package examplepackage;
+
+import java.util.Arrays;
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.analysis.BidPoint;
+import negotiator.utility.UtilitySpace;
+import agents.bayesianopponentmodel.OpponentModel;
+
+/**
+ * The Pareto frontier of a domain in (my utility, opponent utility), built
+ * without keeping every bid the way {@link negotiator.analysis.BidSpace}
+ * does. Points are streamed in and buffered; every full buffer is merged
+ * into the frontier with a sort and a sweep, which keeps only the points not
+ * dominated by another. Memory stays at the size of the frontier plus one
+ * buffer.
+ *
+ * Bids are kept as {@link BidCodec} codes and only decoded for the Nash and
+ * Kalai-Smorodinsky points. {@link #build} evaluates the parts of the domain
+ * on all cores, each into its own frontier, and merges those.
+ *
+ * @author M. Shayganfar
+ */
+public class ParetoFrontier implements ParetoSink
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final BidCodec codec;
+	private final double reservationA;
+	private final double reservationB;
+
+	/** The frontier, by descending utility A and so ascending utility B */
+	private double[] utilitiesA = new double[0];
+	private double[] utilitiesB = new double[0];
+	private long[] codes = new long[0];
+	private int size = 0;
+
+	/** Grows up to BUFFER_SIZE, so small frontiers stay small */
+	private double[] bufferA = new double[16];
+	private double[] bufferB = new double[16];
+	private long[] bufferCodes = new long[16];
+	private int bufferSize = 0;
+
+	/**
+	 * The reservation values are those of the Nash and Kalai-Smorodinsky
+	 * points: bids below them do not count as agreements.
+	 */
+	public ParetoFrontier(BidCodec codec, double reservationA, double reservationB)
+	{
+		this.codec = codec;
+		this.reservationA = reservationA;
+		this.reservationB = reservationB;
+	}
+
+	/**
+	 * Frontier of my space against an opponent model, over all bids of the
+	 * codec's domain. The compiled space may be null, and so may the scorer
+	 * of the model (see {@link BidSpaceCache#getOpponentScorer}); then the
+	 * model is asked bid by bid.
+	 */
+	public static ParetoFrontier build(UtilitySpace utilitySpace, CompiledUtilitySpace compiled, BidCodec codec, OpponentModel opponentModel, BatchUtilityScorer opponentScorer) throws Exception
+	{
+		return build(utilitySpace, compiled, codec, opponentModel, opponentScorer, codec.size());
+	}
+
+	/**
+	 * Frontier over the bids with codes below size only, which for a small
+	 * size tells how long a build takes per bid.
+	 */
+	public static ParetoFrontier build(final UtilitySpace utilitySpace, final CompiledUtilitySpace compiled, final BidCodec codec, final OpponentModel opponentModel, final BatchUtilityScorer opponentScorer, long size) throws Exception
+	{
+		final double reservationA = getReservationValue(utilitySpace);
+		if (opponentScorer == null)
+			prepare(codec, opponentModel);
+
+		// A frontier per part of the domain, on all cores, then merged
+		List<ParetoFrontier> partitions = ParallelDomainScan.scan(size, new ParallelDomainScan.Scanner<ParetoFrontier>() {
+			public ParetoFrontier scan(int partition, long from, long to) {
+				ParetoFrontier frontier = new ParetoFrontier(codec, reservationA, 0);
+				evaluate(utilitySpace, compiled, codec, opponentModel, opponentScorer, from, to, frontier);
+				frontier.flush();
+				return frontier;
+			}
+		});
+
+		ParetoFrontier frontier = partitions.get(0);
+		for (int p = 1; p < partitions.size(); p++)
+			frontier.addAll(partitions.get(p));
+		return frontier;
+	}
+
+	/**
+	 * Lets the model do its lazy initialisation (such as finding its
+	 * utility range for normalisation) on this thread, before the
+	 * partitions read it concurrently.
+	 *
+	 * The partitions call getNormalizedUtility of the model from several
+	 * threads at once. A {@link SeparableOpponentModel} is safe for that:
+	 * it builds its table under a lock and then only reads it. Genius'
+	 * OpponentModel finds its minimum and maximum utility lazily, without
+	 * synchronisation; the build relies on this call having found them, so
+	 * that the partitions only read them. That holds as long as the model
+	 * is not updated during the build: the agent updates and builds on its
+	 * own thread, and the {@link OpponentModelWorker} only updates the model
+	 * the agent is not using. With a scorer of the model, the model is not
+	 * asked at all.
+	 */
+	static void prepare(BidCodec codec, OpponentModel opponentModel) throws Exception
+	{
+		if (codec.size() > 0)
+			opponentModel.getNormalizedUtility(codec.decode(0));
+	}
+
+	static double getReservationValue(UtilitySpace utilitySpace)
+	{
+		Double reservationValue = utilitySpace.getReservationValueUndiscounted();
+		return reservationValue == null ? 0 : reservationValue;
+	}
+
+	/**
+	 * Feeds the points of the bids with codes from up to (not including) to
+	 * to a sink. The scorer of the model may be null. A block at a time,
+	 * whichever utility has a table (the compiled space for mine, the scorer
+	 * for the opponent's) is scored without decoding; the other is asked
+	 * bid by bid.
+	 */
+	static void evaluate(UtilitySpace utilitySpace, CompiledUtilitySpace compiled, BidCodec codec, OpponentModel opponentModel, BatchUtilityScorer opponentScorer, long from, long to, ParetoSink sink)
+	{
+		BatchUtilityScorer scorerA = (compiled != null && compiled.getCodec() == codec) ? BatchUtilityScorer.forUtilitySpace(compiled) : null;
+		BatchUtilityScorer scorerB = (opponentScorer != null && opponentScorer.getCodec() == codec) ? opponentScorer : null;
+
+		double[] utilitiesA = new double[BatchUtilityScorer.BLOCK_SIZE];
+		double[] utilitiesB = new double[BatchUtilityScorer.BLOCK_SIZE];
+		try
+		{
+			for (long start = from; start < to; start += BatchUtilityScorer.BLOCK_SIZE)
+			{
+				int count = (int) Math.min(BatchUtilityScorer.BLOCK_SIZE, to - start);
+				if (scorerA != null)
+					scorerA.scoreRange(start, count, utilitiesA);
+				if (scorerB != null)
+					scorerB.scoreRange(start, count, utilitiesB);
+				for (int b = 0; b < count; b++)
+				{
+					long code = start + b;
+					if (scorerA == null || scorerB == null)
+					{
+						Bid bid = codec.decode(code);
+						if (scorerA == null)
+							utilitiesA[b] = utilitySpace.getUtility(bid);
+						if (scorerB == null)
+							utilitiesB[b] = opponentModel.getNormalizedUtility(bid);
+					}
+					sink.add(code, utilitiesA[b], utilitiesB[b]);
+				}
+			}
+		} catch (Exception e)
+		{
+			// Fails the whole build, see ParallelDomainScan
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void add(long code, double utilityA, double utilityB)
+	{
+		if (bufferSize == bufferA.length)
+		{
+			if (bufferSize < BUFFER_SIZE)
+			{
+				bufferA = Arrays.copyOf(bufferA, 2 * bufferSize);
+				bufferB = Arrays.copyOf(bufferB, 2 * bufferSize);
+				bufferCodes = Arrays.copyOf(bufferCodes, 2 * bufferSize);
+			}
+			else
+				flush();
+		}
+		bufferA[bufferSize] = utilityA;
+		bufferB[bufferSize] = utilityB;
+		bufferCodes[bufferSize] = code;
+		bufferSize++;
+	}
+
+	/**
+	 * Adds the frontier of another part of the domain.
+	 */
+	public void addAll(ParetoFrontier other)
+	{
+		other.flush();
+		for (int i = 0; i < other.size; i++)
+			add(other.codes[i], other.utilitiesA[i], other.utilitiesB[i]);
+	}
+
+	/**
+	 * Number of points on the frontier.
+	 */
+	public int size()
+	{
+		flush();
+		return size;
+	}
+
+	public double getUtilityA(int i)
+	{
+		flush();
+		return utilitiesA[i];
+	}
+
+	public double getUtilityB(int i)
+	{
+		flush();
+		return utilitiesB[i];
+	}
+
+	public long getCode(int i)
+	{
+		flush();
+		return codes[i];
+	}
+
+	/**
+	 * The point with the highest product of utilities above the
+	 * reservation values, or null if no point is above both.
+	 */
+	public BidPoint getNash()
+	{
+		flush();
+		int nash = -1;
+		double maxProduct = -1;
+		for (int i = 0; i < size; i++)
+		{
+			double surplusA = utilitiesA[i] - reservationA;
+			double surplusB = utilitiesB[i] - reservationB;
+			if (surplusA <= 0 || surplusB <= 0)
+				continue;
+			if (surplusA * surplusB > maxProduct)
+			{
+				nash = i;
+				maxProduct = surplusA * surplusB;
+			}
+		}
+		return getPoint(nash);
+	}
+
+	/**
+	 * The point where both utilities are furthest above the reservation
+	 * values by the same amount, or null if the frontier is empty.
+	 */
+	public BidPoint getKalaiSmorodinsky()
+	{
+		flush();
+		int kalai = -1;
+		double minAsymmetry = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < size; i++)
+		{
+			double asymmetry = Math.abs((utilitiesA[i] - reservationA) - (utilitiesB[i] - reservationB));
+			if (asymmetry < minAsymmetry)
+			{
+				kalai = i;
+				minAsymmetry = asymmetry;
+			}
+		}
+		return getPoint(kalai);
+	}
+
+	private BidPoint getPoint(int i)
+	{
+		if (i < 0)
+			return null;
+		return new BidPoint(codec.getBid(codes[i]), utilitiesA[i], utilitiesB[i]);
+	}
+
+	/**
+	 * Merges the buffer into the frontier.
+	 */
+	private void flush()
+	{
+		if (bufferSize == 0)
+			return;
+
+		int n = size + bufferSize;
+		double[] a = new double[n];
+		double[] b = new double[n];
+		long[] c = new long[n];
+		System.arraycopy(utilitiesA, 0, a, 0, size);
+		System.arraycopy(utilitiesB, 0, b, 0, size);
+		System.arraycopy(codes, 0, c, 0, size);
+		System.arraycopy(bufferA, 0, a, size, bufferSize);
+		System.arraycopy(bufferB, 0, b, size, bufferSize);
+		System.arraycopy(bufferCodes, 0, c, size, bufferSize);
+		bufferSize = 0;
+
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		mergeSort(order, new int[n], 0, n, a, b, c);
+
+		// Sweep from the highest utility A down: a point is on the frontier
+		// if it beats every point before it on utility B
+		int m = 0;
+		int[] kept = new int[n];
+		double maxB = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++)
+		{
+			if (b[order[i]] > maxB)
+			{
+				kept[m++] = order[i];
+				maxB = b[order[i]];
+			}
+		}
+
+		utilitiesA = new double[m];
+		utilitiesB = new double[m];
+		codes = new long[m];
+		for (int i = 0; i < m; i++)
+		{
+			utilitiesA[i] = a[kept[i]];
+			utilitiesB[i] = b[kept[i]];
+			codes[i] = c[kept[i]];
+		}
+		size = m;
+	}
+
+	/**
+	 * Whether point i comes before point j: higher utility A, then higher
+	 * utility B, then the lower code, so equal points keep the first bid.
+	 */
+	private static boolean before(int i, int j, double[] a, double[] b, long[] c)
+	{
+		if (a[i] != a[j])
+			return a[i] > a[j];
+		if (b[i] != b[j])
+			return b[i] > b[j];
+		return c[i] < c[j];
+	}
+
+	private static void mergeSort(int[] order, int[] tmp, int from, int to, double[] a, double[] b, long[] c)
+	{
+		if (to - from < 2)
+			return;
+		int mid = (from + to) >>> 1;
+		mergeSort(order, tmp, from, mid, a, b, c);
+		mergeSort(order, tmp, mid, to, a, b, c);
+		if (!before(order[mid], order[mid - 1], a, b, c))
+			return;
+
+		System.arraycopy(order, from, tmp, from, to - from);
+		int i = from, j = mid, k = from;
+		while (i < mid || j < to)
+		{
+			if (j == to || (i < mid && !before(tmp[j], tmp[i], a, b, c)))
+				order[k++] = tmp[i++];
+			else
+				order[k++] = tmp[j++];
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package examplepackage;
+
+/**
+ * Takes the (my utility, opponent utility) points of bids, identified by
+ * their {@link BidCodec} code.
+ *
+ * @author M. Shayganfar
+ */
+public interface ParetoSink
+{
+	void add(long code, double utilityA, double utilityB);
+}
@@ -0,0 +1,129 @@
+package examplepackage;
+
+import negotiator.Bid;
+import agents.bayesianopponentmodel.OpponentModel;
+
+/**
+ * An opponent model in which the opponent's normalised utility of a bid is a
+ * sum of contributions of its issue values. The contributions, normalisation
+ * included, are kept in a table indexed like the {@link BidCodec}; it is
+ * built on the first request after an update and then serves every bid
+ * until the next update, so scoring a batch of bids costs a table lookup per
+ * issue per bid.
+ *
+ * @author M. Shayganfar
+ */
+public abstract class SeparableOpponentModel extends OpponentModel
+{
+	protected final BidCodec codec;
+
+	/** Normalised contribution per issue and value index; null when stale */
+	private volatile double[][] table;
+
+	protected SeparableOpponentModel(BidCodec codec)
+	{
+		this.codec = codec;
+	}
+
+	/**
+	 * The normalised contributions for the current beliefs: every bid of
+	 * the domain sums to between 0 and 1, the worst to 0 and the best to 1.
+	 */
+	protected abstract double[][] buildTable();
+
+	/**
+	 * To be called by every update of the beliefs.
+	 */
+	protected void beliefsChanged()
+	{
+		table = null;
+	}
+
+	/**
+	 * The table of the current beliefs; it never changes, an update makes a
+	 * new one.
+	 */
+	double[][] getTable()
+	{
+		double[][] contributions = table;
+		if (contributions == null)
+			contributions = rebuildTable();
+		return contributions;
+	}
+
+	private synchronized double[][] rebuildTable()
+	{
+		if (table == null)
+			table = buildTable();
+		return table;
+	}
+
+	/**
+	 * The utility scaled so that the worst bid of the domain has 0 and the
+	 * best 1. Issues with a value outside the domain add nothing.
+	 */
+	@Override
+	public double getNormalizedUtility(Bid bid)
+	{
+		return getNormalizedUtility(getTable(), bid);
+	}
+
+	/**
+	 * {@link #getNormalizedUtility(Bid)} of a bid given by its code.
+	 */
+	public double getNormalizedUtility(long code)
+	{
+		double[][] contributions = getTable();
+		double utility = 0;
+		for (int i = 0; i < contributions.length; i++)
+			utility += contributions[i][codec.getValueIndex(code, i)];
+		return utility;
+	}
+
+	/**
+	 * {@link #getNormalizedUtility(Bid)} of the bids into utilities, all with
+	 * the same table.
+	 */
+	public void getNormalizedUtilities(Bid[] bids, double[] utilities)
+	{
+		double[][] contributions = getTable();
+		for (int b = 0; b < bids.length; b++)
+			utilities[b] = getNormalizedUtility(contributions, bids[b]);
+	}
+
+	private double getNormalizedUtility(double[][] contributions, Bid bid)
+	{
+		double utility = 0;
+		for (int i = 0; i < contributions.length; i++)
+		{
+			int value = codec.getValueIndex(bid, i);
+			if (value >= 0)
+				utility += contributions[i][value];
+		}
+		return utility;
+	}
+
+	/**
+	 * The normalised utilities of the bids into utilities for any model,
+	 * NaN where the model fails.
+	 */
+	public static void getNormalizedUtilities(OpponentModel opponentModel, Bid[] bids, double[] utilities)
+	{
+		if (opponentModel instanceof SeparableOpponentModel)
+		{
+			((SeparableOpponentModel) opponentModel).getNormalizedUtilities(bids, utilities);
+			return;
+		}
+		for (int b = 0; b < bids.length; b++)
+		{
+			try
+			{
+				utilities[b] = opponentModel.getNormalizedUtility(bids[b]);
+			} catch (Exception e)
+			{
+				e.printStackTrace();
+				utilities[b] = Double.NaN;
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package examplepackage;
+
+/**
+ * Decides per turn whether there is time to update the opponent model and
+ * the Nash point, from how long those took so far on this machine, how
+ * fast the negotiation goes and how much time is left.
+ *
+ * Every turn earns a share of its duration as credit and every update spends
+ * its cost; updates run while the credit is not negative. So they take
+ * about that share of the time however slow they are: cheap updates run
+ * every turn, expensive ones every few turns.
+ * An update is also skipped if its cost is too big a part of the time left,
+ * so it can never make us miss the deadline, and if, at the pace of the
+ * bids so far, fewer than MIN_TURNS_LEFT turns would remain after it to
+ * make use of what it learnt. Costs and turn durations are
+ * moving averages; an update whose cost is not known yet is always run.
+ *
+ * The same part of the time left bounds the size of the domains whose
+ * Pareto frontier is built, from the measured cost per bid of earlier
+ * builds; see {@link #getMaxFrontierSize()}. The scheduler is shared with
+ * the opponent model worker, so it is thread safe.
+ *
+ * @author M. Shayganfar
+ */
+public class UpdateScheduler
+{
+	/** Weight of the newest measurement in the moving averages */
+	private static final double SMOOTHING = 0.3;
+	/** Part of the time that may be spent on updates */
+	private static final double MAX_SHARE = 0.25;
+	/** Part of the time left that a single update may take */
+	private static final double MAX_SHARE_OF_TIME_LEFT = 0.1;
+	/** Turns that must remain after an update for it to pay off */
+	private static final double MIN_TURNS_LEFT = 2;
+	/** In the last moments we don't want to lose any time */
+	private static final double LAST_UPDATE_TIME = 0.99;
+	/**
+	 * Biggest domain whose Pareto frontier is built while the cost of a
+	 * build or the speed of the negotiation is not known yet
+	 */
+	public static final long DEFAULT_MAX_FRONTIER_SIZE = 1000000;
+
+	private long startNanos = -1;
+	private double startTime;
+	private long lastTurnNanos;
+	/** Negotiation time of the last turn */
+	private double time = 0;
+
+	/** Wall clock seconds per unit of negotiation time */
+	private double secondsPerTime = Double.NaN;
+	private double secondsPerTurn = Double.NaN;
+	private double beliefsSeconds = Double.NaN;
+	private double nashSeconds = Double.NaN;
+	private double frontierSecondsPerBid = Double.NaN;
+	/** Seconds that may still be spent on updates */
+	private double credit = 0;
+
+	/**
+	 * Called at the start of every turn with the negotiation time.
+	 */
+	public synchronized void turn(double time)
+	{
+		long now = System.nanoTime();
+		if (startNanos < 0)
+		{
+			startNanos = now;
+			startTime = time;
+		}
+		else
+		{
+			if (time > startTime)
+				secondsPerTime = (now - startNanos) / 1e9 / (time - startTime);
+			double turnSeconds = (now - lastTurnNanos) / 1e9;
+			secondsPerTurn = average(secondsPerTurn, turnSeconds);
+			credit += MAX_SHARE * turnSeconds;
+		}
+		lastTurnNanos = now;
+		this.time = time;
+	}
+
+	public synchronized boolean canUpdateBeliefs(double time)
+	{
+		return canSpend(beliefsSeconds, time);
+	}
+
+	/**
+	 * Whether there is time to find the Nash point, asked after the beliefs
+	 * are updated.
+	 */
+	public synchronized boolean canUpdateNash(double time)
+	{
+		return canSpend(nashSeconds, time);
+	}
+
+	private boolean canSpend(double seconds, double time)
+	{
+		if (time > LAST_UPDATE_TIME)
+			return false;
+		if (Double.isNaN(seconds) || Double.isNaN(secondsPerTime))
+			return true;
+		double secondsLeft = (1 - time) * secondsPerTime;
+		if (seconds > MAX_SHARE_OF_TIME_LEFT * secondsLeft)
+			return false;
+		// What an update learns is only used by the bids after it
+		if (secondsLeft - seconds < MIN_TURNS_LEFT * secondsPerTurn)
+			return false;
+		return credit >= 0;
+	}
+
+	/**
+	 * Records how long an update of the beliefs took.
+	 */
+	public synchronized void beliefsUpdated(long nanos)
+	{
+		beliefsSeconds = average(beliefsSeconds, nanos / 1e9);
+		credit -= nanos / 1e9;
+	}
+
+	/**
+	 * Records how long finding the Nash point took.
+	 */
+	public synchronized void nashUpdated(long nanos)
+	{
+		nashSeconds = average(nashSeconds, nanos / 1e9);
+		credit -= nanos / 1e9;
+	}
+
+	/**
+	 * Records how long a Pareto frontier over the given number of bids took
+	 * to build.
+	 */
+	public synchronized void frontierBuilt(long bids, long nanos)
+	{
+		if (bids > 0)
+			frontierSecondsPerBid = average(frontierSecondsPerBid, nanos / 1e9 / bids);
+	}
+
+	/**
+	 * Whether a build of the Pareto frontier has been measured.
+	 */
+	public synchronized boolean hasFrontierCost()
+	{
+		return !Double.isNaN(frontierSecondsPerBid);
+	}
+
+	/**
+	 * The biggest domain whose Pareto frontier can be built in the part of
+	 * the time left that a single update may take, at the time of the last
+	 * turn. It grows with the speed of this machine and shrinks towards the
+	 * deadline.
+	 */
+	public synchronized long getMaxFrontierSize()
+	{
+		if (Double.isNaN(frontierSecondsPerBid) || Double.isNaN(secondsPerTime))
+			return DEFAULT_MAX_FRONTIER_SIZE;
+		if (time > LAST_UPDATE_TIME)
+			return 0;
+		double seconds = MAX_SHARE_OF_TIME_LEFT * (1 - time) * secondsPerTime;
+		return (long) Math.min(Long.MAX_VALUE, seconds / frontierSecondsPerBid);
+	}
+
+	private static double average(double average, double value)
+	{
+		return Double.isNaN(average) ? value : average + SMOOTHING * (value - average);
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "UpdateScheduler: beliefs " + milliseconds(beliefsSeconds) + ", Nash " + milliseconds(nashSeconds)
+				+ ", turns " + milliseconds(secondsPerTurn) + ", " + Math.round(secondsPerTime) + " s per unit of time"
+				+ ", frontiers up to " + getMaxFrontierSize() + " bids";
+	}
+
+	private static String milliseconds(double seconds)
+	{
+		return Double.isNaN(seconds) ? "?" : Math.round(1000 * seconds) + " ms";
+	}
+}
@@ -0,0 +1,127 @@
+package examplepackage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import negotiator.Bid;
+
+/**
+ * Finds the bids of a utility band without walking the whole domain. The
+ * issues are assigned one by one, most important first, and a partial bid is
+ * dropped as soon as the best and worst utility its remaining issues can add
+ * show that it can not end up in the band. Only works for a linear additive
+ * space, see {@link CompiledUtilitySpace}.
+ *
+ * Within an issue, values are tried from the highest contribution down, so
+ * with a limit the search returns bids from the whole band rather than those
+ * that come first in domain order.
+ *
+ * @author M. Shayganfar
+ */
+public class UtilityBandSearch
+{
+	/** Slack on the bounds, so rounding never prunes a bid in the band */
+	private static final double EPSILON = 1e-9;
+
+	private final CompiledUtilitySpace compiledUtilitySpace;
+	private final BidCodec codec;
+
+	/** Issue indices, most important first */
+	private final int[] order;
+	/** Value indices per issue, highest contribution first */
+	private final int[][] valueOrder;
+	/** Lowest and highest utility the issues order[k..] can add */
+	private final double[] minRest;
+	private final double[] maxRest;
+
+	public UtilityBandSearch(CompiledUtilitySpace compiledUtilitySpace)
+	{
+		this.compiledUtilitySpace = compiledUtilitySpace;
+		this.codec = compiledUtilitySpace.getCodec();
+
+		int n = codec.getNumberOfIssues();
+		order = new int[n];
+		double[] range = new double[n];
+		for (int i = 0; i < n; i++)
+		{
+			order[i] = i;
+			range[i] = compiledUtilitySpace.getMaxContribution(i) - compiledUtilitySpace.getMinContribution(i);
+		}
+		// Insertion sort on range, descending: the widest issue prunes most
+		for (int i = 1; i < n; i++)
+			for (int j = i; j > 0 && range[order[j]] > range[order[j - 1]]; j--)
+				swap(order, j, j - 1);
+
+		valueOrder = new int[n][];
+		for (int i = 0; i < n; i++)
+		{
+			int[] values = new int[codec.getNumberOfValues(i)];
+			for (int v = 0; v < values.length; v++)
+				values[v] = v;
+			for (int a = 1; a < values.length; a++)
+				for (int b = a; b > 0 && compiledUtilitySpace.getContribution(i, values[b]) > compiledUtilitySpace.getContribution(i, values[b - 1]); b--)
+					swap(values, b, b - 1);
+			valueOrder[i] = values;
+		}
+
+		minRest = new double[n + 1];
+		maxRest = new double[n + 1];
+		for (int k = n - 1; k >= 0; k--)
+		{
+			minRest[k] = minRest[k + 1] + compiledUtilitySpace.getMinContribution(order[k]);
+			maxRest[k] = maxRest[k + 1] + compiledUtilitySpace.getMaxContribution(order[k]);
+		}
+	}
+
+	/**
+	 * Gets the bids with lower <= utility <= upper. With a limit > 0 the
+	 * search stops after finding that many.
+	 */
+	public List<Bid> getBidsOfUtility(double lowerBound, double upperBound, int limit)
+	{
+		List<Bid> bids = new ArrayList<Bid>();
+		search(0, 0, 0, lowerBound, upperBound, limit, bids);
+		return bids;
+	}
+
+	/**
+	 * @return false when the limit has been reached.
+	 */
+	private boolean search(int k, long code, double partialUtility, double lowerBound, double upperBound, int limit, List<Bid> bids)
+	{
+		if (k == order.length)
+		{
+			// Decide on the utility summed the same way getUtility does
+			double utility = compiledUtilitySpace.getUtility(code);
+			if (utility >= lowerBound && utility <= upperBound)
+			{
+				bids.add(codec.getBid(code));
+				if (limit > 0 && bids.size() >= limit)
+					return false;
+			}
+			return true;
+		}
+
+		int issue = order[k];
+		long stride = codec.getStride(issue);
+		for (int value : valueOrder[issue])
+		{
+			double utility = partialUtility + compiledUtilitySpace.getContribution(issue, value);
+			if (utility + minRest[k + 1] > upperBound + EPSILON)
+				continue;
+			// Values come in decreasing contribution, so the rest falls short too
+			if (utility + maxRest[k + 1] < lowerBound - EPSILON)
+				break;
+			if (!search(k + 1, code + value * stride, utility, lowerBound, upperBound, limit, bids))
+				return false;
+		}
+		return true;
+	}
+
+	private static void swap(int[] a, int i, int j)
+	{
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
@@ -0,0 +1,135 @@
+package examplepackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import negotiator.Bid;
+
+/**
+ * Collects, in one walk over the domain, the bids for every step of a search
+ * that keeps raising the upper bound of a utility range by 0.01 until it
+ * passes 1. Each bid goes into the bucket of the first step whose range holds
+ * it, so the range of step k has the bids of buckets 0..k.
+ *
+ * The upper bounds are computed with the same additions as the search does,
+ * so every step finds exactly the bids a walk with that range would find, in
+ * the order they were added.
+ *
+ * @author M. Shayganfar
+ */
+class UtilityBands
+{
+	private final double lowerBound;
+	private final double[] upperBounds;
+	/** If > 0, only the first limit bids of each range are needed */
+	private final int limit;
+
+	private final List<Bid> bids = new ArrayList<Bid>();
+	private final List<Integer> buckets = new ArrayList<Integer>();
+	private final int[] bucketSizes;
+
+	private int nextStep = 0;
+
+	/**
+	 * Steps are upperBound + 0.01, upperBound + 0.02, ... up to and including
+	 * the first one above 1.
+	 */
+	public UtilityBands(double lowerBound, double upperBound, int limit)
+	{
+		this.lowerBound = lowerBound;
+		this.limit = limit;
+
+		double[] steps = new double[16];
+		int n = 0;
+		do
+		{
+			upperBound += 0.01;
+			if (n == steps.length)
+				steps = Arrays.copyOf(steps, 2 * n);
+			steps[n++] = upperBound;
+		} while (upperBound <= 1);
+		upperBounds = Arrays.copyOf(steps, n);
+		bucketSizes = new int[n];
+	}
+
+	/**
+	 * Adds a bid; bids must be added in the order a walk would find them.
+	 */
+	public void add(Bid bid, double utility)
+	{
+		if (!(utility >= lowerBound && utility <= upperBounds[upperBounds.length - 1]))
+			return;
+		addToBucket(bid, getBucket(utility));
+	}
+
+	private void addToBucket(Bid bid, int bucket)
+	{
+		// A bid beyond the first limit of its bucket is never among the
+		// first limit of a range
+		if (limit <= 0 || bucketSizes[bucket] < limit)
+		{
+			bids.add(bid);
+			buckets.add(bucket);
+		}
+		bucketSizes[bucket]++;
+	}
+
+	/**
+	 * Adds the bids of the bands collected over the next part of the domain.
+	 */
+	public void addAll(UtilityBands next)
+	{
+		for (int i = 0; i < next.bids.size(); i++)
+		{
+			int bucket = next.buckets.get(i);
+			if (limit <= 0 || bucketSizes[bucket] < limit)
+			{
+				bids.add(next.bids.get(i));
+				buckets.add(bucket);
+			}
+		}
+		for (int k = 0; k < bucketSizes.length; k++)
+			bucketSizes[k] += next.bucketSizes[k];
+	}
+
+	/**
+	 * Bids of the range of the next step, or an empty list after the last
+	 * step.
+	 */
+	public List<Bid> next()
+	{
+		List<Bid> range = new ArrayList<Bid>();
+		if (nextStep >= upperBounds.length)
+			return range;
+
+		for (int i = 0; i < bids.size(); i++)
+		{
+			if (buckets.get(i) > nextStep)
+				continue;
+			range.add(bids.get(i));
+			if (limit > 0 && range.size() >= limit)
+				break;
+		}
+		nextStep++;
+		return range;
+	}
+
+	/**
+	 * First step whose upper bound is at least the utility.
+	 */
+	private int getBucket(double utility)
+	{
+		int low = 0;
+		int high = upperBounds.length - 1;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (utility <= upperBounds[mid])
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+}
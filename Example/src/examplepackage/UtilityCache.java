@@ -0,0 +1,152 @@
+package examplepackage;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import negotiator.Bid;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Remembers the utilities of the most recently used bids of a session. With
+ * a codec, bids are looked up by their code, encoded once per lookup, so
+ * equal bids hit whichever instance they are; bids outside the domain are
+ * not cached. Without one, bids are looked up by identity, which finds the
+ * bids the agent keeps in its histories. When full, a bid that has not been
+ * used since the clock hand last passed it is evicted.
+ *
+ * A compiled space is not cached at all: its utility costs an encoding and
+ * an addition per issue, which is what a lookup here would cost.
+ *
+ * @author M. Shayganfar
+ */
+public class UtilityCache
+{
+	private final UtilitySpace utilitySpace;
+	/** May be null */
+	private final CompiledUtilitySpace compiledUtilitySpace;
+	/** May be null */
+	private final BidCodec codec;
+
+	/** Per slot, the code of the bid, or the bid itself without a codec */
+	private final Object[] keys;
+	private final double[] utilities;
+	private final boolean[] referenced;
+	private final Map<Object, Integer> slots;
+	private int size = 0;
+	private int hand = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * The compiled space and the codec may be null.
+	 */
+	public UtilityCache(UtilitySpace utilitySpace, CompiledUtilitySpace compiledUtilitySpace, BidCodec codec, int capacity)
+	{
+		this.utilitySpace = utilitySpace;
+		this.compiledUtilitySpace = compiledUtilitySpace;
+		this.codec = codec;
+		keys = new Object[capacity];
+		utilities = new double[capacity];
+		referenced = new boolean[capacity];
+		if (codec != null)
+			slots = new HashMap<Object, Integer>(2 * capacity);
+		else
+			slots = new IdentityHashMap<Object, Integer>(capacity);
+	}
+
+	public UtilitySpace getUtilitySpace()
+	{
+		return utilitySpace;
+	}
+
+	/**
+	 * Utility of a bid, or 0 if it can not be computed.
+	 */
+	public double getUtility(Bid bid)
+	{
+		if (bid == null || compiledUtilitySpace != null)
+			return evaluate(bid);
+
+		Object key = bid;
+		if (codec != null)
+		{
+			long code = codec.encode(bid);
+			if (code < 0)
+				return evaluate(bid);
+			key = Long.valueOf(code);
+		}
+
+		Integer slot = slots.get(key);
+		if (slot != null)
+		{
+			hits++;
+			referenced[slot] = true;
+			return utilities[slot];
+		}
+
+		misses++;
+		double utility = evaluate(bid);
+		put(key, utility);
+		return utility;
+	}
+
+	private double evaluate(Bid bid)
+	{
+		if (compiledUtilitySpace != null)
+			return compiledUtilitySpace.getUtility(bid);
+		try
+		{
+			return utilitySpace.getUtility(bid);
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	private void put(Object key, double utility)
+	{
+		int slot;
+		if (size < keys.length)
+			slot = size++;
+		else
+		{
+			// Give every used bid a second chance before evicting it
+			while (referenced[hand])
+			{
+				referenced[hand] = false;
+				hand = (hand + 1) % keys.length;
+			}
+			slot = hand;
+			hand = (hand + 1) % keys.length;
+			slots.remove(keys[slot]);
+		}
+		keys[slot] = key;
+		utilities[slot] = utility;
+		referenced[slot] = false;
+		slots.put(key, slot);
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	@Override
+	public String toString()
+	{
+		if (compiledUtilitySpace != null)
+			return "UtilityCache: off, the utility space is compiled";
+		long lookups = hits + misses;
+		return "UtilityCache: " + hits + " hits, " + misses + " misses"
+				+ (lookups > 0 ? " (" + Math.round(100.0 * hits / lookups) + "% hits)" : "")
+				+ ", " + size + " bids cached";
+	}
+}
@@ -0,0 +1,162 @@
+package examplepackage;
+
+import java.util.List;
+
+import negotiator.Bid;
+import negotiator.utility.UtilitySpace;
+import agents.anac.y2013.MetaAgent.portfolio.thenegotiatorreloaded.BidIterator;
+
+/**
+ * What a session needs to know about a utility space and is otherwise
+ * recomputed on every use: its lowest and highest utility, the bid of
+ * highest utility, the reservation value and the discount factor.
+ *
+ * For a linear additive space (see {@link CompiledUtilitySpace}) the lowest
+ * and highest utility are the sums of the lowest and highest contribution
+ * of every issue, and the best bid takes the value of highest contribution
+ * of every issue; they are found when the profile is made and are bit for
+ * bit those a walk over the domain would find. For other spaces they are
+ * found on first use, the utilities by a scan of the domain and the best
+ * bid by the space.
+ *
+ * @author M. Shayganfar
+ */
+public class UtilityProfile
+{
+	private final UtilitySpace utilitySpace;
+	private final double reservationValue;
+	private final double discountFactor;
+
+	private double minUtility = Double.NaN;
+	private double maxUtility = Double.NaN;
+	private Bid maxUtilityBid;
+
+	/**
+	 * The compiled space may be null.
+	 */
+	public UtilityProfile(UtilitySpace utilitySpace, CompiledUtilitySpace compiledUtilitySpace)
+	{
+		this.utilitySpace = utilitySpace;
+		reservationValue = ParetoFrontier.getReservationValue(utilitySpace);
+		discountFactor = utilitySpace.getDiscountFactor();
+
+		if (compiledUtilitySpace != null)
+		{
+			BidCodec codec = compiledUtilitySpace.getCodec();
+			double min = 0;
+			double max = 0;
+			long maxCode = 0;
+			for (int i = 0; i < codec.getNumberOfIssues(); i++)
+			{
+				// Summed in issue order, like CompiledUtilitySpace.getUtility
+				min += compiledUtilitySpace.getMinContribution(i);
+				max += compiledUtilitySpace.getMaxContribution(i);
+				int best = 0;
+				for (int v = 1; v < codec.getNumberOfValues(i); v++)
+					if (compiledUtilitySpace.getContribution(i, v) > compiledUtilitySpace.getContribution(i, best))
+						best = v;
+				maxCode += best * codec.getStride(i);
+			}
+			minUtility = min;
+			maxUtility = max;
+			maxUtilityBid = codec.getBid(maxCode);
+		}
+	}
+
+	/**
+	 * The profile of a space that does not come with a compiled one; it is
+	 * compiled if it can be.
+	 */
+	public static UtilityProfile build(UtilitySpace utilitySpace)
+	{
+		CompiledUtilitySpace compiled = null;
+		if (BidCodec.canEncode(utilitySpace.getDomain()))
+			compiled = CompiledUtilitySpace.compile(utilitySpace, new BidCodec(utilitySpace.getDomain()));
+		return new UtilityProfile(utilitySpace, compiled);
+	}
+
+	public UtilitySpace getUtilitySpace()
+	{
+		return utilitySpace;
+	}
+
+	/**
+	 * The undiscounted reservation value, 0 if there is none.
+	 */
+	public double getReservationValue()
+	{
+		return reservationValue;
+	}
+
+	public double getDiscountFactor()
+	{
+		return discountFactor;
+	}
+
+	public synchronized Bid getMaxUtilityBid() throws Exception
+	{
+		if (maxUtilityBid == null)
+			maxUtilityBid = utilitySpace.getMaxUtilityBid();
+		return maxUtilityBid;
+	}
+
+	public synchronized double getMinUtility() throws Exception
+	{
+		if (Double.isNaN(minUtility))
+			findMinMaxUtility();
+		return minUtility;
+	}
+
+	public synchronized double getMaxUtility() throws Exception
+	{
+		if (Double.isNaN(maxUtility))
+			findMinMaxUtility();
+		return maxUtility;
+	}
+
+	private void findMinMaxUtility() throws Exception
+	{
+		if (BidCodec.canEncode(utilitySpace.getDomain()))
+		{
+			final BidCodec codec = new BidCodec(utilitySpace.getDomain());
+			// Min and max per part of the domain, on all cores
+			List<double[]> minMax = ParallelDomainScan.scan(codec.size(), new ParallelDomainScan.Scanner<double[]>() {
+				public double[] scan(int partition, long from, long to) {
+					double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+					for (long code = from; code < to; code++)
+					{
+						double u;
+						try {
+							u = utilitySpace.getUtility(codec.decode(code));
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+						if (min > u) min = u;
+						if (max < u) max = u;
+					}
+					return new double[] {min, max};
+				}
+			});
+
+			minUtility = Double.POSITIVE_INFINITY;  maxUtility = Double.NEGATIVE_INFINITY;
+			for (double[] partition : minMax)
+			{
+				if (minUtility > partition[0]) minUtility = partition[0];
+				if (maxUtility < partition[1]) maxUtility = partition[1];
+			}
+			return;
+		}
+
+		BidIterator biditer = new BidIterator(utilitySpace.getDomain());
+
+		minUtility = Double.POSITIVE_INFINITY;  maxUtility = Double.NEGATIVE_INFINITY;
+
+		while (biditer.hasNext())
+		{
+			double utility = utilitySpace.getUtility(biditer.next());
+
+			if (minUtility > utility) minUtility = utility;
+			if (maxUtility < utility) maxUtility = utility;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package examplepackage;
+
+/**
+ * Times scoring every bid of a domain of 907200 bids with
+ * {@link CompiledUtilitySpace#getUtility(long)} and with
+ * {@link BatchUtilityScorer#scoreRange(long, int, double[])}. Not a test:
+ * run it by hand, on an otherwise idle machine.
+ *
+ * @author M. Shayganfar
+ */
+public class BatchUtilityScorerBenchmark
+{
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args)
+	{
+		BidCodec codec = new BidCodec(TestDomains.create(10, 9, 8, 7, 6, 5, 3, 2));
+		CompiledUtilitySpace compiled = CompiledUtilitySpace.compile(TestDomains.createLinearUtilitySpace(codec.getDomain(), 0), codec);
+		BatchUtilityScorer scorer = BatchUtilityScorer.forUtilitySpace(compiled);
+
+		int size = (int) codec.size();
+		double[] scalar = new double[size];
+		double[] block = new double[size];
+		double[] utilities = new double[BatchUtilityScorer.BLOCK_SIZE];
+		long scalarNanos = Long.MAX_VALUE;
+		long blockNanos = Long.MAX_VALUE;
+		// The best of some rounds, the first ones warming up the JIT
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			long start = System.nanoTime();
+			for (int code = 0; code < size; code++)
+				scalar[code] = compiled.getUtility(code);
+			scalarNanos = Math.min(scalarNanos, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int from = 0; from < size; from += BatchUtilityScorer.BLOCK_SIZE)
+			{
+				int count = Math.min(BatchUtilityScorer.BLOCK_SIZE, size - from);
+				scorer.scoreRange(from, count, utilities);
+				System.arraycopy(utilities, 0, block, from, count);
+			}
+			blockNanos = Math.min(blockNanos, System.nanoTime() - start);
+		}
+
+		System.out.println("Scoring " + size + " bids: one by one " + scalarNanos / 1000000 + " ms, by block "
+				+ blockNanos / 1000000 + " ms");
+	}
+}
@@ -0,0 +1,42 @@
+package examplepackage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+/**
+ * Scoring a domain a block at a time with
+ * {@link BatchUtilityScorer#scoreRange(long, int, double[])} must give bit
+ * for bit what {@link CompiledUtilitySpace#getUtility(long)} gives, for
+ * blocks starting anywhere. How long both take is measured by
+ * {@link BatchUtilityScorerBenchmark}.
+ *
+ * @author M. Shayganfar
+ */
+public class BatchUtilityScorerTest
+{
+	@Test
+	public void scoreRangeMatchesCompiledSpace()
+	{
+		BidCodec codec = new BidCodec(TestDomains.create(10, 9, 8, 7, 6, 5, 3, 2));
+		CompiledUtilitySpace compiled = CompiledUtilitySpace.compile(TestDomains.createLinearUtilitySpace(codec.getDomain(), 0), codec);
+		assertNotNull("linear space not compiled", compiled);
+		BatchUtilityScorer scorer = BatchUtilityScorer.forUtilitySpace(compiled);
+
+		double[] utilities = new double[BatchUtilityScorer.BLOCK_SIZE];
+		// Blocks of the full size, and of an odd size, which also start in
+		// the middle of a run of values of an issue
+		int[] blockSizes = { BatchUtilityScorer.BLOCK_SIZE, 997 };
+		for (int blockSize : blockSizes)
+		{
+			for (long from = 0; from < codec.size(); from += blockSize)
+			{
+				int count = (int) Math.min(blockSize, codec.size() - from);
+				scorer.scoreRange(from, count, utilities);
+				for (int b = 0; b < count; b++)
+					assertEquals("code " + (from + b), Double.doubleToLongBits(compiled.getUtility(from + b)), Double.doubleToLongBits(utilities[b]));
+			}
+		}
+	}
+}
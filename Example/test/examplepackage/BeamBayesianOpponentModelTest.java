@@ -0,0 +1,57 @@
+package examplepackage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The beam-pruned Bayesian model must learn exactly the same whether it
+ * updates its issues on one core or on all of them.
+ * 
+ * @author M. Shayganfar
+ */
+public class BeamBayesianOpponentModelTest
+{
+	private static final int BIDS = 60;
+	private static final int PROBES = 200;
+
+	@Test
+	public void parallelUpdatesLearnTheSame() throws Exception
+	{
+		BidCodec codec = new BidCodec(TestDomains.create(5, 7, 3, 6, 4, 8, 2, 5, 9, 3, 4, 6));
+		int[] beamWidths = { 1, 3, BeamBayesianOpponentModel.DEFAULT_BEAM_WIDTH };
+		for (int beamWidth : beamWidths)
+		{
+			BeamBayesianOpponentModel sequential = new BeamBayesianOpponentModel(codec, beamWidth);
+			BeamBayesianOpponentModel parallel = new BeamBayesianOpponentModel(codec, beamWidth);
+			parallel.setParallel(true);
+
+			Random random = new Random(beamWidth);
+			long[] probes = new long[PROBES];
+			for (int p = 0; p < PROBES; p++)
+				probes[p] = (long) (random.nextDouble() * codec.size());
+
+			for (int b = 0; b < BIDS; b++)
+			{
+				long code = (long) (random.nextDouble() * codec.size());
+				sequential.updateBeliefs(codec.getBid(code));
+				parallel.updateBeliefs(codec.getBid(code));
+
+				String message = "beam width " + beamWidth + ", bid " + b;
+				assertSame(message, sequential.getRetainedMass(), parallel.getRetainedMass());
+				assertEquals(message, sequential.getNumberOfHypotheses(), parallel.getNumberOfHypotheses());
+				for (int i = 0; i < codec.getNumberOfIssues(); i++)
+					assertSame(message + ", issue " + i, sequential.getExpectedWeightByIndex(i), parallel.getExpectedWeightByIndex(i));
+				for (long probe : probes)
+					assertSame(message + ", probe " + probe, sequential.getNormalizedUtility(probe), parallel.getNormalizedUtility(probe));
+			}
+		}
+	}
+
+	private static void assertSame(String message, double expected, double actual)
+	{
+		assertEquals(message, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+	}
+}
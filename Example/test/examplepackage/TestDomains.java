@@ -0,0 +1,104 @@
+package examplepackage;
+
+import java.util.List;
+import java.util.Random;
+
+import negotiator.Bid;
+import negotiator.Domain;
+import negotiator.issue.Issue;
+import negotiator.issue.IssueDiscrete;
+import negotiator.issue.Objective;
+import negotiator.issue.ValueDiscrete;
+import negotiator.utility.UtilitySpace;
+
+/**
+ * Builds discrete domains and linear additive utility spaces over them for
+ * the tests, without domain or preference files.
+ * 
+ * @author M. Shayganfar
+ */
+class TestDomains
+{
+	/**
+	 * A domain with one discrete issue per entry of numberOfValues, with
+	 * that many values.
+	 */
+	static Domain create(int... numberOfValues)
+	{
+		Objective root = new Objective(null, "root", 0);
+		for (int i = 0; i < numberOfValues.length; i++)
+		{
+			String[] values = new String[numberOfValues[i]];
+			for (int j = 0; j < values.length; j++)
+				values[j] = "value" + (j + 1);
+			root.addChild(new IssueDiscrete("issue" + (i + 1), i + 1, values, root));
+		}
+		Domain domain = new Domain();
+		domain.setObjectivesRoot(root);
+		return domain;
+	}
+
+	/**
+	 * A linear additive space over a domain of {@link #create(int...)},
+	 * with random weights and evaluations.
+	 */
+	static UtilitySpace createLinearUtilitySpace(Domain domain, long seed)
+	{
+		Random random = new Random(seed);
+		List<Issue> issues = domain.getIssues();
+		double[] weights = new double[issues.size()];
+		double[][] evaluations = new double[issues.size()][];
+		double totalWeight = 0;
+		for (int i = 0; i < weights.length; i++)
+		{
+			weights[i] = random.nextDouble();
+			totalWeight += weights[i];
+			evaluations[i] = new double[((IssueDiscrete) issues.get(i)).getNumberOfValues()];
+			for (int v = 0; v < evaluations[i].length; v++)
+				evaluations[i][v] = random.nextDouble();
+		}
+		for (int i = 0; i < weights.length; i++)
+			weights[i] /= totalWeight;
+		return new LinearUtilitySpace(domain, weights, evaluations);
+	}
+
+	/**
+	 * Weights and evaluations by issue number - 1 and value index.
+	 */
+	private static class LinearUtilitySpace extends UtilitySpace
+	{
+		private final List<Issue> issues;
+		private final double[] weights;
+		private final double[][] evaluations;
+
+		LinearUtilitySpace(Domain domain, double[] weights, double[][] evaluations)
+		{
+			super(domain);
+			this.issues = domain.getIssues();
+			this.weights = weights;
+			this.evaluations = evaluations;
+		}
+
+		@Override
+		public double getWeight(int issueNumber)
+		{
+			return weights[issueNumber - 1];
+		}
+
+		@Override
+		public double getEvaluation(int issueNumber, Bid bid) throws Exception
+		{
+			IssueDiscrete issue = (IssueDiscrete) issues.get(issueNumber - 1);
+			return evaluations[issueNumber - 1][issue.getValueIndex((ValueDiscrete) bid.getValue(issueNumber))];
+		}
+
+		@Override
+		public double getUtility(Bid bid) throws Exception
+		{
+			double utility = 0;
+			for (int i = 0; i < weights.length; i++)
+				utility += getWeight(i + 1) * getEvaluation(i + 1, bid);
+			return utility;
+		}
+	}
+}